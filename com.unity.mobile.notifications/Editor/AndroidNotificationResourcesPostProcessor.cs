@@ -104,6 +104,7 @@ namespace Unity.Notifications
         {
             const string kNotificationManagerName = "com.unity.androidnotifications.UnityNotificationManager";
             const string kNotificationRestartOnBootName = "com.unity.androidnotifications.UnityNotificationRestartOnBootReceiver";
+            const string kNotificationTimeChangeName = "com.unity.androidnotifications.UnityNotificationTimeChangeReceiver";
 
             var applicationXmlNode = manifestXmlDoc.SelectSingleNode("manifest/application");
             if (applicationXmlNode == null)
@@ -111,6 +112,7 @@ namespace Unity.Notifications
 
             XmlElement notificationManagerReceiver = null;
             XmlElement notificationRestartOnBootReceiver = null;
+            XmlElement notificationTimeChangeReceiver = null;
 
             var receiverNodes = manifestXmlDoc.SelectNodes("manifest/application/receiver");
             if (receiverNodes != null)
@@ -127,8 +129,10 @@ namespace Unity.Notifications
                         notificationManagerReceiver = element;
                     else if (elementName == kNotificationRestartOnBootName)
                         notificationRestartOnBootReceiver = element;
+                    else if (elementName == kNotificationTimeChangeName)
+                        notificationTimeChangeReceiver = element;
 
-                    if (notificationManagerReceiver != null && notificationRestartOnBootReceiver != null)
+                    if (notificationManagerReceiver != null && notificationRestartOnBootReceiver != null && notificationTimeChangeReceiver != null)
                         break;
                 }
             }
@@ -143,6 +147,27 @@ namespace Unity.Notifications
             }
             notificationManagerReceiver.SetAttribute("exported", kAndroidNamespaceURI, "true");
 
+            // The notification manager receiver checks the scheduled notifications' alarms after the app was updated.
+            const string kPackageReplacedAction = "android.intent.action.MY_PACKAGE_REPLACED";
+            var hasPackageReplacedAction = false;
+            foreach (XmlNode node in notificationManagerReceiver.SelectNodes("intent-filter/action"))
+            {
+                var element = node as XmlElement;
+                if (element != null && element.GetAttribute("name", kAndroidNamespaceURI) == kPackageReplacedAction)
+                    hasPackageReplacedAction = true;
+            }
+
+            if (!hasPackageReplacedAction)
+            {
+                var intentFilterNode = manifestXmlDoc.CreateElement("intent-filter");
+
+                var actionNode = manifestXmlDoc.CreateElement("action");
+                actionNode.SetAttribute("name", kAndroidNamespaceURI, kPackageReplacedAction);
+
+                intentFilterNode.AppendChild(actionNode);
+                notificationManagerReceiver.AppendChild(intentFilterNode);
+            }
+
             // Create notification restart-on-boot receiver if necessary.
             if (notificationRestartOnBootReceiver == null)
             {
@@ -159,6 +184,26 @@ namespace Unity.Notifications
                 applicationXmlNode.AppendChild(notificationRestartOnBootReceiver);
             }
             notificationRestartOnBootReceiver.SetAttribute("enabled", kAndroidNamespaceURI, "false");
+
+            // Create time change receiver if necessary, it moves notifications anchored to a local time.
+            if (notificationTimeChangeReceiver == null)
+            {
+                notificationTimeChangeReceiver = manifestXmlDoc.CreateElement("receiver");
+                notificationTimeChangeReceiver.SetAttribute("name", kAndroidNamespaceURI, kNotificationTimeChangeName);
+
+                var intentFilterNode = manifestXmlDoc.CreateElement("intent-filter");
+
+                foreach (var action in new[] { "android.intent.action.TIMEZONE_CHANGED", "android.intent.action.TIME_SET" })
+                {
+                    var actionNode = manifestXmlDoc.CreateElement("action");
+                    actionNode.SetAttribute("name", kAndroidNamespaceURI, action);
+                    intentFilterNode.AppendChild(actionNode);
+                }
+
+                notificationTimeChangeReceiver.AppendChild(intentFilterNode);
+                applicationXmlNode.AppendChild(notificationTimeChangeReceiver);
+            }
+            notificationTimeChangeReceiver.SetAttribute("exported", kAndroidNamespaceURI, "false");
         }
 
         internal static void AppendAndroidPermissionField(string manifestPath, XmlDocument xmlDoc, string name)
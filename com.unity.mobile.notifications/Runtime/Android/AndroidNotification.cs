@@ -1,4 +1,5 @@
 using System;
+using System.Collections.Generic;
 using UnityEngine;
 
 namespace Unity.Notifications.Android
@@ -48,6 +49,45 @@ namespace Unity.Notifications.Android
         GroupAlertChildren = 2,
     }
 
+    /// <summary>
+    /// Determines how precisely a one-time notification is delivered at it's fire time.
+    /// </summary>
+    public enum NotificationPrecision
+    {
+        /// <summary>
+        /// Deliver the notification at the exact fire time, even when the device is idle.
+        /// Exact alarms are limited to roughly one every 9 minutes while the device is in Doze mode, if another exact notification is already scheduled close to the same time
+        /// the notification will be delivered within a short window instead, unless it's posted to a channel with high importance.
+        /// </summary>
+        Exact = 0,
+
+        /// <summary>
+        /// Deliver the notification within the 'PrecisionWindow' interval after the fire time.
+        /// </summary>
+        Windowed = 1,
+
+        /// <summary>
+        /// Let the system choose when to deliver the notification, delivery might be delayed significantly while the device is idle.
+        /// </summary>
+        Inexact = 2,
+    }
+
+    /// <summary>
+    /// What happens to a notification held back by a suppression rule when it fires, see AndroidNotificationCenter.SetQuietHours.
+    /// </summary>
+    public enum NotificationSuppressionAction
+    {
+        /// <summary>
+        /// Show the notification once the rule no longer applies. For repeating notifications only the held back occurrence is deferred.
+        /// </summary>
+        Defer = 0,
+
+        /// <summary>
+        /// Don't show the notification.
+        /// </summary>
+        Drop = 1,
+    }
+
     /// <summary>
     /// The AndroidNotification is used schedule a local notification, which includes the content of the notification.
     /// </summary>
@@ -84,7 +124,7 @@ namespace Unity.Notifications.Android
             set { smallIcon = value; }
         }
 
-        private static long DatetimeToLong(DateTime value)
+        internal static long DatetimeToLong(DateTime value)
         {
             DateTime origin = new DateTime(1970, 1, 1, 0, 0, 0, 0, DateTimeKind.Utc);
             TimeSpan diff = value.ToUniversalTime() - origin;
@@ -92,7 +132,7 @@ namespace Unity.Notifications.Android
             return (long)Math.Floor(diff.TotalMilliseconds);
         }
 
-        private static DateTime LongToDatetime(long value)
+        internal static DateTime LongToDatetime(long value)
         {
             DateTime origin = new DateTime(1970, 1, 1, 0, 0, 0, 0, DateTimeKind.Utc);
             return origin.AddMilliseconds(value).ToLocalTime();
@@ -278,6 +318,65 @@ namespace Unity.Notifications.Android
             }
         }
 
+        /// <summary>
+        /// How precisely the notification should be delivered at it's fire time. Only applies to one-time notifications.
+        /// By default the 'Exact' precision is used.
+        /// </summary>
+        public NotificationPrecision Precision
+        {
+            get { return (NotificationPrecision)precision; }
+            set { precision = (int)value; }
+        }
+
+        /// <summary>
+        /// The interval after the fire time in which a notification using the 'Windowed' precision can be delivered.
+        /// </summary>
+        public TimeSpan PrecisionWindow
+        {
+            get { return TimeSpan.FromMilliseconds(precisionWindow); }
+            set { precisionWindow = (long)value.TotalMilliseconds; }
+        }
+
+        /// <summary>
+        /// Notifications scheduled with the same collapse key replace each other, at most one notification with a given collapse key is scheduled at any time.
+        /// Use this to keep a single pending notification of a certain kind (for example a daily reward reminder) without having to track and cancel it's id.
+        /// This includes the notifications AndroidNotificationCenter.ScheduleNotifications stores for later, the key is resolved when they're stored.
+        /// </summary>
+        public string CollapseKey
+        {
+            get { return collapseKey; }
+            set { collapseKey = value; }
+        }
+
+        /// <summary>
+        /// Keep the notification at the same local time of day when the device's time zone changes, for example to deliver it at 9:00 wherever the user is.
+        /// By default the notification fires at the same absolute point in time, which is a different local time after a time zone change.
+        /// </summary>
+        public bool AnchorToLocalTime
+        {
+            get { return anchorToLocalTime; }
+            set { anchorToLocalTime = value; }
+        }
+
+        /// <summary>
+        /// Id of a template registered with AndroidNotificationCenter.RegisterNotificationTemplate. The title and text are rendered from the template
+        /// for the device's locale when the notification is delivered, Title and Text are only used if the template isn't registered then.
+        /// </summary>
+        public string TemplateId
+        {
+            get { return templateId; }
+            set { templateId = value; }
+        }
+
+        /// <summary>
+        /// Values of the {name} placeholders in the patterns of the notification's template.
+        /// </summary>
+        public Dictionary<string, string> TemplateParameters
+        {
+            get { return templateParameters; }
+            set { templateParameters = value; }
+        }
+
         internal string title;
         internal string text;
 
@@ -307,6 +406,15 @@ namespace Unity.Notifications.Android
 
         internal bool showCustomTimestamp;
 
+        internal int precision;
+        internal long precisionWindow;
+
+        internal string collapseKey;
+        internal bool anchorToLocalTime;
+
+        internal string templateId;
+        internal Dictionary<string, string> templateParameters;
+
         /// <summary>
         /// Create a notification struct with all optional fields set to default values.
         /// </summary>
@@ -334,6 +442,13 @@ namespace Unity.Notifications.Android
             showTimestamp = false;
             showCustomTimestamp = false;
 
+            precision = (int)NotificationPrecision.Exact;
+            precisionWindow = 10 * 60 * 1000L;
+            collapseKey = "";
+            anchorToLocalTime = false;
+            templateId = "";
+            templateParameters = null;
+
             this.FireTime = fireTime;
         }
 
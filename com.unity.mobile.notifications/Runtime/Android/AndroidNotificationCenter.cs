@@ -1,6 +1,7 @@
 using System;
 using System.Linq;
 using System.Collections.Generic;
+using System.Text;
 using UnityEngine;
 
 namespace Unity.Notifications.Android
@@ -31,6 +32,56 @@ namespace Unity.Notifications.Android
         Delivered = 2,
     }
 
+    /// <summary>
+    /// A single entry of the notification set passed to AndroidNotificationCenter.SyncScheduledNotifications.
+    /// </summary>
+    public struct AndroidNotificationScheduleEntry
+    {
+        /// <summary>
+        /// Id of the scheduled notification.
+        /// </summary>
+        public int Id;
+
+        /// <summary>
+        /// Id of the channel the notification will be posted to.
+        /// </summary>
+        public string Channel;
+
+        /// <summary>
+        /// The notification that should be scheduled under this id.
+        /// </summary>
+        public AndroidNotification Notification;
+
+        public AndroidNotificationScheduleEntry(int id, AndroidNotification notification, string channel)
+        {
+            Id = id;
+            Channel = channel;
+            Notification = notification;
+        }
+    }
+
+    /// <summary>
+    /// The fields of a shown notification to change with AndroidNotificationCenter.UpdateNotification, fields left null are not changed.
+    /// </summary>
+    public struct AndroidNotificationUpdate
+    {
+        public string Title;
+        public string Text;
+        public int? Number;
+
+        /// <summary>
+        /// Shows a progress bar at this value out of ProgressMax, set ProgressMax to 0 to remove the bar.
+        /// Progress values left null keep the value of the previous update, ProgressMax starts at 100.
+        /// </summary>
+        public int? Progress;
+        public int? ProgressMax;
+
+        /// <summary>
+        /// Shows a progress bar without a value when set to true.
+        /// </summary>
+        public bool? ProgressIndeterminate;
+    }
+
     /// <summary>
     /// Use the AndroidNotificationCenter to register notification channels and schedule local notifications.
     /// </summary>
@@ -124,18 +175,7 @@ namespace Unity.Notifications.Android
             if (!Initialize())
                 return;
 
-            if (string.IsNullOrEmpty(channel.id))
-            {
-                throw new Exception("Cannot register notification channel, the channel ID is not specified.");
-            }
-            else if (string.IsNullOrEmpty(channel.id))
-            {
-                throw new Exception(string.Format("Cannot register notification channel: {} , the channel Name is not set.", channel.id));
-            }
-            else if (string.IsNullOrEmpty(channel.description))
-            {
-                throw new Exception(string.Format("Cannot register notification channel: {} , the channel Description is not set.", channel.id));
-            }
+            ValidateNotificationChannel(channel);
 
             notificationManager.Call("registerNotificationChannel",
                 channel.id,
@@ -151,6 +191,54 @@ namespace Unity.Notifications.Android
             );
         }
 
+        /// <summary>
+        /// Creates several notification channels at once, on Android 8.0 and above they are created in a single call to the system.
+        /// Channels which are registered with exactly the same settings as the last time they were registered are skipped,
+        /// so it's cheap to register all of the app's channels at every startup.
+        /// </summary>
+        public static void RegisterNotificationChannels(IEnumerable<AndroidNotificationChannel> channels)
+        {
+            if (!Initialize())
+                return;
+
+            AndroidJavaObject channelList = new AndroidJavaObject("java.util.ArrayList");
+            foreach (var channel in channels)
+            {
+                ValidateNotificationChannel(channel);
+
+                var wrapper = new AndroidJavaObject("com.unity.androidnotifications.NotificationChannelWrapper");
+                wrapper.Set("id", channel.id);
+                wrapper.Set("name", channel.title);
+                wrapper.Set("importance", Enum.IsDefined(typeof(Importance), channel.importance) ? channel.importance : (int)Importance.Default);
+                wrapper.Set("description", channel.description);
+                wrapper.Set("enableLights", channel.enableLights);
+                wrapper.Set("enableVibration", channel.enableVibration);
+                wrapper.Set("canBypassDnd", channel.canBypassDnd);
+                wrapper.Set("canShowBadge", channel.canShowBadge);
+                wrapper.Set("vibrationPattern", channel.VibrationPattern);
+                wrapper.Set("lockscreenVisibility", Enum.IsDefined(typeof(LockScreenVisibility), channel.lockscreenVisibility) ? channel.lockscreenVisibility : (int)LockScreenVisibility.Public);
+                channelList.Call<bool>("add", wrapper);
+            }
+
+            notificationManager.Call("registerNotificationChannels", channelList);
+        }
+
+        static void ValidateNotificationChannel(AndroidNotificationChannel channel)
+        {
+            if (string.IsNullOrEmpty(channel.id))
+            {
+                throw new Exception("Cannot register notification channel, the channel ID is not specified.");
+            }
+            else if (string.IsNullOrEmpty(channel.id))
+            {
+                throw new Exception(string.Format("Cannot register notification channel: {} , the channel Name is not set.", channel.id));
+            }
+            else if (string.IsNullOrEmpty(channel.description))
+            {
+                throw new Exception(string.Format("Cannot register notification channel: {} , the channel Description is not set.", channel.id));
+            }
+        }
+
         /// <summary>
         /// Cancel a scheduled or previously shown notification.
         /// The notification will no longer be displayed on it's scheduled time. If it's already delivered it will be removed from the status bar.
@@ -185,9 +273,46 @@ namespace Unity.Notifications.Android
             if (!Initialize())
                 return;
 
-            AndroidJavaObject androidNotificationManager =
-                notificationManager.Call<AndroidJavaObject>("getNotificationManager");
-            androidNotificationManager.Call("cancel", id);
+            notificationManager.Call("cancelDisplayedNotification", id);
+        }
+
+        /// <summary>
+        /// Changes the specified fields of a notification that is shown, for example to show progress. Only the changed fields are applied, the rest of the notification is kept as it was built.
+        /// Updates of a notification are shown at most once per update interval (see SetNotificationUpdateInterval), faster updates are coalesced and the latest one is always shown.
+        /// Returns false if the notification isn't known, it has to be sent with SendNotification first, or if it was dismissed or tapped. On Android 6.0 and later a notification removed otherwise is detected on it's first update and before coalesced updates are shown.
+        /// </summary>
+        public static bool UpdateNotification(int id, AndroidNotificationUpdate update)
+        {
+            if (!Initialize())
+                return false;
+
+            AndroidJavaObject changes = new AndroidJavaObject("android.content.Intent");
+            if (update.Title != null)
+                changes.Call<AndroidJavaObject>("putExtra", "textTitle", update.Title);
+            if (update.Text != null)
+                changes.Call<AndroidJavaObject>("putExtra", "textContent", update.Text);
+            if (update.Number.HasValue)
+                changes.Call<AndroidJavaObject>("putExtra", "number", update.Number.Value);
+            if (update.Progress.HasValue)
+                changes.Call<AndroidJavaObject>("putExtra", "progress", update.Progress.Value);
+            if (update.ProgressMax.HasValue)
+                changes.Call<AndroidJavaObject>("putExtra", "progressMax", update.ProgressMax.Value);
+            if (update.ProgressIndeterminate.HasValue)
+                changes.Call<AndroidJavaObject>("putExtra", "progressIndeterminate", update.ProgressIndeterminate.Value);
+
+            return notificationManager.Call<bool>("updateNotification", id, changes);
+        }
+
+        /// <summary>
+        /// Sets the minimum time between two updates of the same notification posted by UpdateNotification, one second by default.
+        /// Android drops notification updates that arrive faster than a few per second.
+        /// </summary>
+        public static void SetNotificationUpdateInterval(TimeSpan interval)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("setNotificationUpdateInterval", (long)interval.TotalMilliseconds);
         }
 
         /// <summary>
@@ -309,6 +434,92 @@ namespace Unity.Notifications.Android
             return id;
         }
 
+        /// <summary>
+        /// Returns the ids of scheduled notifications which will be delivered between the specified times, in the order they will be delivered.
+        /// Results can be filtered by channel, group and by whether the notifications are repeating, pass null to ignore a filter.
+        /// At most 'limit' ids are returned, if there are more results the 'cursor' is set and can be passed to the next call to get the following page, otherwise it is set to null.
+        /// </summary>
+        public static int[] QueryScheduledNotifications(string channel, string group, DateTime from, DateTime to, bool? repeating, int limit, ref string cursor)
+        {
+            if (!Initialize())
+                return new int[0];
+
+            int repeatFilter = repeating == null ? -1 : (repeating.Value ? 1 : 0);
+            var result = notificationManager.Call<AndroidJavaObject>("queryScheduledNotifications",
+                channel,
+                group,
+                AndroidNotification.DatetimeToLong(from),
+                AndroidNotification.DatetimeToLong(to),
+                repeatFilter,
+                limit,
+                cursor);
+
+            cursor = result.Get<string>("cursor");
+            return result.Get<int[]>("ids");
+        }
+
+        /// <summary>
+        /// Returns the ids of the next 'count' notifications that will be delivered, in the order they will be delivered.
+        /// </summary>
+        public static int[] GetUpcomingNotificationIDs(int count)
+        {
+            if (!Initialize())
+                return new int[0];
+
+            var result = notificationManager.Call<AndroidJavaObject>("getUpcomingNotifications", count);
+            return result.Get<int[]>("ids");
+        }
+
+        /// <summary>
+        /// Removes the stored data of delivered notifications older than 7 days and of stale notifications, whose alarm was lost a day after their fire time
+        /// without them being delivered. This also happens periodically in the background, call it to purge them right away.
+        /// Returns the number of purged notifications, 'staleRecords' is set to how many of them were stale.
+        /// </summary>
+        public static int PurgeExpiredNotifications(out int staleRecords)
+        {
+            staleRecords = 0;
+            if (!Initialize())
+                return 0;
+
+            var result = notificationManager.Call<int[]>("purgeExpiredNotifications");
+            staleRecords = result[1];
+            return result[0];
+        }
+
+        /// <summary>
+        /// Removes and returns up to 'maxCount' of the oldest recorded notification lifecycle events (scheduled, armed, fired, posted, tapped and dismissed).
+        /// The device keeps the last 1024 events, 'dropped' is set to the number of events that were overwritten since the previous call.
+        /// Fired events can be summarized with an AndroidNotificationDeliveryLagHistogram.
+        /// </summary>
+        public static AndroidNotificationEvent[] DrainNotificationEvents(int maxCount, out long dropped)
+        {
+            dropped = 0;
+            if (!Initialize())
+                return new AndroidNotificationEvent[0];
+
+            var batch = notificationManager.Call<AndroidJavaObject>("drainNotificationEvents", maxCount);
+            var types = batch.Get<int[]>("types");
+            var ids = batch.Get<int[]>("ids");
+            var precisions = batch.Get<int[]>("precisions");
+            var channels = batch.Get<string[]>("channels");
+            var scheduledTimes = batch.Get<long[]>("scheduledTimes");
+            var actualTimes = batch.Get<long[]>("actualTimes");
+            dropped = batch.Get<long>("dropped");
+
+            var events = new AndroidNotificationEvent[types.Length];
+            for (int i = 0; i < events.Length; i++)
+            {
+                events[i].Type = (AndroidNotificationEventType)types[i];
+                events[i].Id = ids[i];
+                events[i].Channel = channels[i];
+                events[i].Precision = (NotificationPrecision)precisions[i];
+                events[i].ScheduledTime = AndroidNotification.LongToDatetime(scheduledTimes[i]);
+                events[i].ActualTime = AndroidNotification.LongToDatetime(actualTimes[i]);
+            }
+
+            return events;
+        }
+
         /// <summary>
         /// Return the status of a scheduled notification.
         /// Only available in API  23 and above.
@@ -319,7 +530,223 @@ namespace Unity.Notifications.Android
             return (NotificationStatus)status;
         }
 
+        /// <summary>
+        /// Replace the whole set of scheduled notifications with the specified one.
+        /// Only notifications that were added, removed or changed since they were scheduled are rescheduled or canceled, all other scheduled notifications are left untouched.
+        /// This is much cheaper than canceling all notifications and scheduling them again when the set barely changes.
+        /// One-time notifications firing more than two days ahead are stored for later like ScheduleNotifications does, the ones already stored unchanged are left as they are.
+        /// </summary>
+        public static void SyncScheduledNotifications(IEnumerable<AndroidNotificationScheduleEntry> notifications)
+        {
+            if (!Initialize())
+                return;
+
+            AndroidJavaObject intents = new AndroidJavaObject("java.util.ArrayList");
+            foreach (var entry in notifications)
+            {
+                intents.Call<bool>("add", CreateNotificationIntent(entry.Id, entry.Notification, entry.Channel));
+            }
+
+            notificationManager.Call<int[]>("syncScheduledNotificationIntents", intents);
+        }
+
+        /// <summary>
+        /// Schedule many notifications at once, for example a whole season of them.
+        /// One-time notifications firing more than two days ahead are stored in per-day segments without an alarm and are only scheduled when their day comes close,
+        /// so they don't slow down starting the app or restoring notifications after a reboot. They can be canceled by id like other scheduled notifications,
+        /// and SyncScheduledNotifications cancels the ones missing from the set it's given.
+        /// Returns the number of notifications that were stored for later.
+        /// </summary>
+        public static int ScheduleNotifications(IEnumerable<AndroidNotificationScheduleEntry> notifications)
+        {
+            if (!Initialize())
+                return 0;
+
+            AndroidJavaObject intents = new AndroidJavaObject("java.util.ArrayList");
+            foreach (var entry in notifications)
+            {
+                intents.Call<bool>("add", CreateNotificationIntent(entry.Id, entry.Notification, entry.Channel));
+            }
+
+            return notificationManager.Call<int>("scheduleNotificationIntents", intents);
+        }
+
+        /// <summary>
+        /// Returns how many scheduled notifications were repaired when AndroidNotificationCenter was initialized.
+        /// Alarms are wiped when the app is force stopped and by some task killers, notifications which are still due are armed again ('rearmed'),
+        /// one-time notifications whose fire time passed in the meantime are removed ('purged').
+        /// Initialization only checks the notifications when all alarms of the app were wiped, alarms of single notifications that got lost are repaired in the background later and aren't counted.
+        /// </summary>
+        public static void GetRepairedNotificationCounts(out int rearmed, out int purged)
+        {
+            rearmed = 0;
+            purged = 0;
+            if (!Initialize())
+                return;
+
+            var counts = notificationManager.Call<int[]>("getRepairCounts");
+            rearmed = counts[0];
+            purged = counts[1];
+        }
+
+        /// <summary>
+        /// Adds or replaces a quiet hours rule, notifications firing between the start and end time of the day (local time) are deferred to the end time or dropped.
+        /// The window wraps around midnight if the end time is before the start time. Pass null as channel for a rule that applies to all channels.
+        /// Rules are checked when notifications fire, scheduled notifications don't need to be scheduled again when rules change.
+        /// </summary>
+        public static void SetQuietHours(string ruleId, string channel, TimeSpan start, TimeSpan end, NotificationSuppressionAction action)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("setQuietHoursRule", ruleId, channel ?? "", (int)start.TotalMinutes, (int)end.TotalMinutes, (int)action);
+        }
+
+        /// <summary>
+        /// Adds or replaces a rule dropping all notifications of the channel when they fire, for example when the channel is turned off in the game's settings.
+        /// </summary>
+        public static void MuteChannel(string ruleId, string channel)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("setChannelMuteRule", ruleId, channel ?? "");
+        }
+
+        /// <summary>
+        /// Adds or replaces a rule allowing at most maxPerDay notifications of the channel to be shown per day, further ones are deferred to the next day or dropped.
+        /// Pass null as channel to limit the notifications of all channels together.
+        /// </summary>
+        public static void SetDailyCap(string ruleId, string channel, int maxPerDay, NotificationSuppressionAction action)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("setDailyCapRule", ruleId, channel ?? "", maxPerDay, (int)action);
+        }
+
+        /// <summary>
+        /// Removes a suppression rule added with SetQuietHours, MuteChannel or SetDailyCap.
+        /// </summary>
+        public static void RemoveSuppressionRule(string ruleId)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("removeSuppressionRule", ruleId);
+        }
+
+        /// <summary>
+        /// Removes all suppression rules and resets the daily counts.
+        /// </summary>
+        public static void ClearSuppressionRules()
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("clearSuppressionRules");
+        }
+
+        /// <summary>
+        /// Registers the title and body patterns of a notification template for a locale, replacing the patterns registered before.
+        /// Patterns can contain {name} placeholders which are filled in from AndroidNotification.TemplateParameters when a notification using the template is delivered.
+        /// The locale is a language ("de") or a language and country ("pt-BR"), use null or an empty string for the patterns used when no locale matches.
+        /// Notifications which are already scheduled use the new patterns, they don't need to be scheduled again.
+        /// The id and the locale can't contain '/'.
+        /// </summary>
+        public static void RegisterNotificationTemplate(string id, string locale, string title, string body)
+        {
+            if (!Initialize())
+                return;
+
+            if (string.IsNullOrEmpty(id))
+                throw new Exception("Cannot register notification template, the template ID is not specified.");
+            if (id.IndexOf('/') >= 0 || (locale != null && locale.IndexOf('/') >= 0))
+                throw new Exception(string.Format("Cannot register notification template: {0} , the ID and locale can't contain '/'.", id));
+
+            notificationManager.Call("registerNotificationTemplate", id, locale ?? "", title, body);
+        }
+
+        /// <summary>
+        /// Removes the patterns of all locales of a notification template.
+        /// </summary>
+        public static void DeleteNotificationTemplate(string id)
+        {
+            if (!Initialize())
+                return;
+
+            notificationManager.Call("deleteNotificationTemplate", id);
+        }
+
+        const char TemplateParameterSeparator = '\u001e';
+        const char TemplateValueSeparator = '\u001f';
+
+        static string EncodeTemplateParameters(Dictionary<string, string> parameters)
+        {
+            var builder = new StringBuilder();
+            foreach (var parameter in parameters)
+            {
+                if (builder.Length > 0)
+                    builder.Append(TemplateParameterSeparator);
+                builder.Append(parameter.Key).Append(TemplateValueSeparator).Append(parameter.Value);
+            }
+            return builder.ToString();
+        }
+
+        static Dictionary<string, string> DecodeTemplateParameters(string encoded)
+        {
+            var parameters = new Dictionary<string, string>();
+            if (string.IsNullOrEmpty(encoded))
+                return parameters;
+
+            foreach (var pair in encoded.Split(TemplateParameterSeparator))
+            {
+                int separator = pair.IndexOf(TemplateValueSeparator);
+                if (separator >= 0)
+                    parameters[pair.Substring(0, separator)] = pair.Substring(separator + 1);
+            }
+            return parameters;
+        }
+
+        /// <summary>
+        /// Writes the registered notification channels and all scheduled notifications to a versioned binary snapshot file, which can be imported
+        /// with ImportNotificationSnapshot later or on another device. Returns the number of notifications written, or -1 if the file couldn't be written.
+        /// </summary>
+        public static int ExportNotificationSnapshot(string path)
+        {
+            if (!Initialize())
+                return -1;
+
+            return notificationManager.Call<int>("exportNotificationSnapshot", path);
+        }
+
+        /// <summary>
+        /// Registers the notification channels stored in a snapshot file and replaces the scheduled notifications with the ones stored in it,
+        /// the same way SyncScheduledNotifications does. One-time notifications whose fire time has already passed are not scheduled.
+        /// Returns false if the file couldn't be read.
+        /// </summary>
+        public static bool ImportNotificationSnapshot(string path, out int channelCount, out int notificationCount)
+        {
+            channelCount = 0;
+            notificationCount = 0;
+            if (!Initialize())
+                return false;
+
+            var result = notificationManager.Call<int[]>("importNotificationSnapshot", path);
+            if (result == null || result.Length < 2)
+                return false;
+
+            channelCount = result[0];
+            notificationCount = result[1];
+            return true;
+        }
+
         internal static void SendNotification(int id, AndroidNotification notification, string channel)
+        {
+            notificationManager.Call("scheduleNotificationIntent", CreateNotificationIntent(id, notification, channel));
+        }
+
+        internal static AndroidJavaObject CreateNotificationIntent(int id, AndroidNotification notification, string channel)
         {
             if (notification.fireTime < 0L)
             {
@@ -335,8 +762,18 @@ namespace Unity.Notifications.Android
 
             notificationIntent.Call<AndroidJavaObject>("putExtra", "id", id);
             notificationIntent.Call<AndroidJavaObject>("putExtra", "channelID", channel);
-            notificationIntent.Call<AndroidJavaObject>("putExtra", "textTitle", notification.title);
-            notificationIntent.Call<AndroidJavaObject>("putExtra", "textContent", notification.text);
+            // Templated notifications don't need to store the texts, they are rendered when the notification is delivered.
+            bool usesTemplate = !string.IsNullOrEmpty(notification.templateId);
+            if (!usesTemplate || !string.IsNullOrEmpty(notification.title))
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "textTitle", notification.title);
+            if (!usesTemplate || !string.IsNullOrEmpty(notification.text))
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "textContent", notification.text);
+            if (usesTemplate)
+            {
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "templateId", notification.templateId);
+                if (notification.templateParameters != null && notification.templateParameters.Count > 0)
+                    notificationIntent.Call<AndroidJavaObject>("putExtra", "templateParams", EncodeTemplateParameters(notification.templateParameters));
+            }
             notificationIntent.Call<AndroidJavaObject>("putExtra", "smallIconStr", notification.smallIcon);
             notificationIntent.Call<AndroidJavaObject>("putExtra", "autoCancel", notification.shouldAutoCancel);
             notificationIntent.Call<AndroidJavaObject>("putExtra", "usesChronometer", notification.usesStopwatch);
@@ -358,7 +795,15 @@ namespace Unity.Notifications.Android
 
             notificationIntent.Call<AndroidJavaObject>("putExtra", "timestamp", timestampValue);
 
-            notificationManager.Call("scheduleNotificationIntent", notificationIntent);
+            notificationIntent.Call<AndroidJavaObject>("putExtra", "precision", notification.precision);
+            if (notification.precisionWindow > 0L)
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "precisionWindow", notification.precisionWindow);
+            if (!string.IsNullOrEmpty(notification.collapseKey))
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "collapseKey", notification.collapseKey);
+            if (notification.anchorToLocalTime)
+                notificationIntent.Call<AndroidJavaObject>("putExtra", "localTime", true);
+
+            return notificationIntent;
         }
 
         /// <summary>
@@ -374,6 +819,14 @@ namespace Unity.Notifications.Android
 
         internal static AndroidNotificationIntentData ParseNotificationIntentData(AndroidJavaObject notificationIntent)
         {
+            // Tap intents only carry the notification id and version, the notification itself is loaded from storage.
+            if (notificationIntent.Call<bool>("hasExtra", "version") && !notificationIntent.Call<bool>("hasExtra", "channelID"))
+            {
+                notificationIntent = notificationManager.Call<AndroidJavaObject>("loadNotificationIntent", notificationIntent);
+                if (notificationIntent == null)
+                    return null;
+            }
+
             var id = notificationIntent.Call<int>("getIntExtra", "id", -1);
             var channel = notificationIntent.Call<string>("getStringExtra", "channelID");
 
@@ -382,8 +835,19 @@ namespace Unity.Notifications.Android
 
             var notification = new AndroidNotification();
 
-            notification.title = notificationIntent.Call<string>("getStringExtra", "textTitle");
-            notification.text = notificationIntent.Call<string>("getStringExtra", "textContent");
+            notification.templateId = notificationIntent.Call<string>("getStringExtra", "templateId");
+            if (!string.IsNullOrEmpty(notification.templateId))
+            {
+                notification.templateParameters = DecodeTemplateParameters(notificationIntent.Call<string>("getStringExtra", "templateParams"));
+                var text = notificationManager.Call<string[]>("renderNotificationText", notificationIntent);
+                notification.title = text[0];
+                notification.text = text[1];
+            }
+            else
+            {
+                notification.title = notificationIntent.Call<string>("getStringExtra", "textTitle");
+                notification.text = notificationIntent.Call<string>("getStringExtra", "textContent");
+            }
             notification.shouldAutoCancel = notificationIntent.Call<bool>("getBooleanExtra", "autoCancel", false);
             notification.usesStopwatch =
                 notificationIntent.Call<bool>("getBooleanExtra", "usesChronometer", false);
@@ -393,10 +857,16 @@ namespace Unity.Notifications.Android
             notification.color = notificationIntent.Call<int>("getIntExtra", "color", 0);
             notification.number = notificationIntent.Call<int>("getIntExtra", "number", -1);
             notification.intentData = notificationIntent.Call<string>("getStringExtra", "data");
+            if (notification.intentData == null && notificationIntent.Call<bool>("hasExtra", "dataRef"))
+                notification.intentData = notificationManager.Call<string>("loadNotificationPayload", notificationIntent);
             notification.group = notificationIntent.Call<string>("getStringExtra", "group");
             notification.groupSummary = notificationIntent.Call<bool>("getBooleanExtra", "groupSummary", false);
             notification.sortKey = notificationIntent.Call<string>("getStringExtra", "sortKey");
             notification.groupAlertBehaviour = notificationIntent.Call<int>("getIntExtra", "groupAlertBehaviour", -1);
+            notification.precision = notificationIntent.Call<int>("getIntExtra", "precision", (int)NotificationPrecision.Exact);
+            notification.precisionWindow = notificationIntent.Call<long>("getLongExtra", "precisionWindow", 0L);
+            notification.collapseKey = notificationIntent.Call<string>("getStringExtra", "collapseKey");
+            notification.anchorToLocalTime = notificationIntent.Call<bool>("getBooleanExtra", "localTime", false);
 
             return new AndroidNotificationIntentData
             {
@@ -0,0 +1,157 @@
+using System;
+using System.Collections.Generic;
+
+namespace Unity.Notifications.Android
+{
+    /// <summary>
+    /// The lifecycle step of a notification recorded in an AndroidNotificationEvent.
+    /// </summary>
+    public enum AndroidNotificationEventType
+    {
+        /// <summary>
+        /// The notification was scheduled from Unity.
+        /// </summary>
+        Scheduled = 0,
+
+        /// <summary>
+        /// The alarm of the notification was set, the event's Precision is the precision the alarm was actually set with.
+        /// </summary>
+        Armed = 1,
+
+        /// <summary>
+        /// The alarm of the notification went off.
+        /// </summary>
+        Fired = 2,
+
+        /// <summary>
+        /// The notification was posted to the notification drawer.
+        /// </summary>
+        Posted = 3,
+
+        /// <summary>
+        /// The app was opened by tapping the notification.
+        /// </summary>
+        Tapped = 4,
+
+        /// <summary>
+        /// The notification was dismissed by the user.
+        /// </summary>
+        Dismissed = 5,
+
+        /// <summary>
+        /// The notification was posted while the app wasn't running, in a process started to deliver it.
+        /// The event's ScheduledTime is the time the process was started, so Lag is how long the cold delivery took.
+        /// </summary>
+        PostedInColdProcess = 6,
+    }
+
+    /// <summary>
+    /// A recorded notification lifecycle event, see AndroidNotificationCenter.DrainNotificationEvents.
+    /// </summary>
+    public struct AndroidNotificationEvent
+    {
+        public AndroidNotificationEventType Type;
+        public int Id;
+        public string Channel;
+        public NotificationPrecision Precision;
+
+        /// <summary>
+        /// The time the notification was scheduled to be delivered at. For repeating notifications this is the occurrence that was due.
+        /// </summary>
+        public DateTime ScheduledTime;
+
+        /// <summary>
+        /// The time the event actually happened.
+        /// </summary>
+        public DateTime ActualTime;
+
+        /// <summary>
+        /// How late the event happened compared to the scheduled time.
+        /// </summary>
+        public TimeSpan Lag
+        {
+            get { return ActualTime - ScheduledTime; }
+        }
+    }
+
+    /// <summary>
+    /// Counts how late notifications were delivered, per channel and per precision.
+    /// Add drained events to it, only 'Fired' events are counted.
+    /// </summary>
+    public class AndroidNotificationDeliveryLagHistogram
+    {
+        /// <summary>
+        /// Upper bounds of the histogram buckets, the last bucket counts everything later than the last bound.
+        /// </summary>
+        public static readonly TimeSpan[] BucketBounds =
+        {
+            TimeSpan.FromSeconds(1),
+            TimeSpan.FromSeconds(10),
+            TimeSpan.FromMinutes(1),
+            TimeSpan.FromMinutes(5),
+            TimeSpan.FromMinutes(15),
+            TimeSpan.FromHours(1),
+        };
+
+        Dictionary<string, Dictionary<NotificationPrecision, int[]>> buckets = new Dictionary<string, Dictionary<NotificationPrecision, int[]>>();
+
+        public void Add(IEnumerable<AndroidNotificationEvent> events)
+        {
+            foreach (var e in events)
+                Add(e);
+        }
+
+        public void Add(AndroidNotificationEvent e)
+        {
+            if (e.Type != AndroidNotificationEventType.Fired)
+                return;
+
+            string channel = e.Channel ?? string.Empty;
+            Dictionary<NotificationPrecision, int[]> channelBuckets;
+            if (!buckets.TryGetValue(channel, out channelBuckets))
+            {
+                channelBuckets = new Dictionary<NotificationPrecision, int[]>();
+                buckets[channel] = channelBuckets;
+            }
+
+            int[] counts;
+            if (!channelBuckets.TryGetValue(e.Precision, out counts))
+            {
+                counts = new int[BucketBounds.Length + 1];
+                channelBuckets[e.Precision] = counts;
+            }
+
+            var lag = e.Lag;
+            int bucket = 0;
+            while (bucket < BucketBounds.Length && lag > BucketBounds[bucket])
+                bucket++;
+            counts[bucket]++;
+        }
+
+        /// <summary>
+        /// The channels which have delivered notifications in the histogram.
+        /// </summary>
+        public IEnumerable<string> Channels
+        {
+            get { return buckets.Keys; }
+        }
+
+        /// <summary>
+        /// Returns the number of deliveries in each bucket (see BucketBounds) for the channel and precision.
+        /// </summary>
+        public int[] GetBucketCounts(string channel, NotificationPrecision precision)
+        {
+            Dictionary<NotificationPrecision, int[]> channelBuckets;
+            int[] counts;
+            if (buckets.TryGetValue(channel ?? string.Empty, out channelBuckets) && channelBuckets.TryGetValue(precision, out counts))
+                return (int[])counts.Clone();
+
+            return new int[BucketBounds.Length + 1];
+        }
+
+        public void Clear()
+        {
+            buckets.Clear();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.unity.androidnotifications;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Keep;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Decides which kind of alarm is used for one-shot notifications.
+//
+// While the device is in Doze an app can only fire one exact "allow while idle" alarm roughly every 9 minutes,
+// and every such alarm wakes the device up. The planner keeps track of the exact alarms that are currently armed and
+// when a notification asks for an exact alarm which would fall into the same 9 minute window as another one, it's
+// moved to a windowed alarm unless it's posted to a high importance channel.
+@Keep
+public class NotificationAlarmPlanner
+{
+    public static final int PRECISION_EXACT = 0;
+    public static final int PRECISION_WINDOWED = 1;
+    public static final int PRECISION_INEXACT = 2;
+
+    public static final long DEFAULT_PRECISION_WINDOW = 10 * 60 * 1000L;
+    public static final long IDLE_EXACT_ALARM_INTERVAL = 9 * 60 * 1000L;
+
+    static final String UNITY_EXACT_ALARMS = "UNITY_NOTIFICATION_EXACT_ALARMS";
+
+    // fire time -> number of exact alarms armed at that time, and id -> fire time of its exact alarm.
+    private static TreeMap<Long, Integer> mExactAlarmTimes;
+    private static HashMap<Integer, Long> mExactAlarms;
+
+    private static void loadExactAlarms(Context context)
+    {
+        if (mExactAlarms != null)
+            return;
+
+        mExactAlarmTimes = new TreeMap<Long, Integer>();
+        mExactAlarms = new HashMap<Integer, Long>();
+
+        long staleBefore = System.currentTimeMillis() - IDLE_EXACT_ALARM_INTERVAL;
+        SharedPreferences prefs = context.getSharedPreferences(UNITY_EXACT_ALARMS, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = null;
+
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet())
+        {
+            long fireTime = entry.getValue() instanceof Long ? (Long)entry.getValue() : 0L;
+            if (fireTime < staleBefore)
+            {
+                if (editor == null)
+                    editor = prefs.edit();
+                editor.remove(entry.getKey());
+                continue;
+            }
+
+            try {
+                addExactAlarm(Integer.valueOf(entry.getKey()), fireTime);
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+
+        if (editor != null)
+            editor.apply();
+    }
+
+    private static void addExactAlarm(int id, long fireTime)
+    {
+        mExactAlarms.put(id, fireTime);
+        Integer count = mExactAlarmTimes.get(fireTime);
+        mExactAlarmTimes.put(fireTime, count == null ? 1 : count + 1);
+    }
+
+    private static boolean removeExactAlarm(int id)
+    {
+        Long fireTime = mExactAlarms.remove(id);
+        if (fireTime == null)
+            return false;
+
+        Integer count = mExactAlarmTimes.get(fireTime);
+        if (count == null || count <= 1)
+            mExactAlarmTimes.remove(fireTime);
+        else
+            mExactAlarmTimes.put(fireTime, count - 1);
+        return true;
+    }
+
+    // Returns the precision that should actually be used for the alarm of the specified notification.
+    public static synchronized int planPrecision(Context context, int id, long fireTime, int requestedPrecision, int importance)
+    {
+        loadExactAlarms(context);
+
+        SharedPreferences.Editor editor = context.getSharedPreferences(UNITY_EXACT_ALARMS, Context.MODE_PRIVATE).edit();
+        if (removeExactAlarm(id))
+            editor.remove(Integer.toString(id));
+
+        int precision = requestedPrecision;
+        if (precision == PRECISION_EXACT && importance < NotificationManager.IMPORTANCE_HIGH)
+        {
+            // Another exact alarm is already armed within the idle budget window.
+            long from = fireTime - IDLE_EXACT_ALARM_INTERVAL;
+            long to = fireTime + IDLE_EXACT_ALARM_INTERVAL;
+            if (!mExactAlarmTimes.subMap(from, false, to, false).isEmpty())
+                precision = PRECISION_WINDOWED;
+        }
+
+        if (precision == PRECISION_EXACT)
+        {
+            addExactAlarm(id, fireTime);
+            editor.putLong(Integer.toString(id), fireTime);
+        }
+
+        editor.apply();
+        return precision;
+    }
+
+    // Gives back the budget reserved by the exact alarm of the specified notification (if any).
+    public static synchronized void releaseExactAlarm(Context context, int id)
+    {
+        loadExactAlarms(context);
+
+        if (removeExactAlarm(id))
+        {
+            context.getSharedPreferences(UNITY_EXACT_ALARMS, Context.MODE_PRIVATE).edit()
+                    .remove(Integer.toString(id)).apply();
+        }
+    }
+
+    public static synchronized boolean hasExactAlarm(Context context, int id)
+    {
+        loadExactAlarms(context);
+        return mExactAlarms.containsKey(id);
+    }
+
+    public static synchronized int getExactAlarmCount(Context context)
+    {
+        loadExactAlarms(context);
+        return mExactAlarms.size();
+    }
+}
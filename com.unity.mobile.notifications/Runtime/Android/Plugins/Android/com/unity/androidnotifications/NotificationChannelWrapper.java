@@ -15,4 +15,22 @@ public class NotificationChannelWrapper {
     public boolean canShowBadge;
     public long[] vibrationPattern;
     public int lockscreenVisibility;
+
+    // Hash of the channel definition, used to skip registering channels that didn't change.
+    long computeDefinitionHash()
+    {
+        StringBuilder definition = new StringBuilder();
+        definition.append(id).append('\u001f')
+                .append(name).append('\u001f')
+                .append(importance).append('\u001f')
+                .append(description).append('\u001f')
+                .append(enableLights).append('\u001f')
+                .append(enableVibration).append('\u001f')
+                .append(canBypassDnd).append('\u001f')
+                .append(canShowBadge).append('\u001f')
+                .append(java.util.Arrays.toString(vibrationPattern)).append('\u001f')
+                .append(lockscreenVisibility);
+
+        return NotificationHash.hash(definition);
+    }
 }
@@ -0,0 +1,69 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Keep;
+
+// Secondary index from a notification's collapse key to the id of the notification currently scheduled with it.
+// Both directions are stored ("key_<collapseKey>" -> id and "id_<id>" -> collapseKey) so that lookups when scheduling
+// and cleanups when a notification is canceled or delivered don't need to scan anything.
+@Keep
+public class NotificationCollapseKeyIndex
+{
+    static final String UNITY_NOTIFICATION_COLLAPSE_KEYS = "UNITY_NOTIFICATION_COLLAPSE_KEYS";
+
+    private static final String KEY_PREFIX = "key_";
+    private static final String ID_PREFIX = "id_";
+
+    private static SharedPreferences getPrefs(Context context)
+    {
+        return context.getSharedPreferences(UNITY_NOTIFICATION_COLLAPSE_KEYS, Context.MODE_PRIVATE);
+    }
+
+    // Returns the id of the notification scheduled with the specified collapse key or -1 if there is none.
+    public static int getNotificationId(String collapseKey, Context context)
+    {
+        if (collapseKey == null || collapseKey.length() == 0)
+            return -1;
+
+        return getPrefs(context).getInt(KEY_PREFIX + collapseKey, -1);
+    }
+
+    public static String getCollapseKey(int id, Context context)
+    {
+        return getPrefs(context).getString(ID_PREFIX + id, null);
+    }
+
+    // Assigns the collapse key to the specified notification, whatever notification used the key before is dropped from the index.
+    public static void put(String collapseKey, int id, Context context)
+    {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+
+        int previousId = prefs.getInt(KEY_PREFIX + collapseKey, -1);
+        if (previousId != -1 && previousId != id)
+            editor.remove(ID_PREFIX + previousId);
+
+        String previousKey = prefs.getString(ID_PREFIX + id, null);
+        if (previousKey != null && !previousKey.equals(collapseKey))
+            editor.remove(KEY_PREFIX + previousKey);
+
+        editor.putInt(KEY_PREFIX + collapseKey, id);
+        editor.putString(ID_PREFIX + id, collapseKey);
+        editor.apply();
+    }
+
+    public static void remove(int id, Context context)
+    {
+        SharedPreferences prefs = getPrefs(context);
+        String collapseKey = prefs.getString(ID_PREFIX + id, null);
+        if (collapseKey == null)
+            return;
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(ID_PREFIX + id);
+        if (prefs.getInt(KEY_PREFIX + collapseKey, -1) == id)
+            editor.remove(KEY_PREFIX + collapseKey);
+        editor.apply();
+    }
+}
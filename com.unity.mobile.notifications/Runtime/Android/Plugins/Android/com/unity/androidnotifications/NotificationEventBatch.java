@@ -0,0 +1,26 @@
+package com.unity.androidnotifications;
+
+import android.support.annotation.Keep;
+
+@Keep
+public class NotificationEventBatch {
+
+    public int[] types;
+    public int[] ids;
+    public int[] precisions;
+    public String[] channels;
+    public long[] scheduledTimes;
+    public long[] actualTimes;
+    // Number of events that were overwritten before they could be drained.
+    public long dropped;
+
+    public NotificationEventBatch(int size)
+    {
+        types = new int[size];
+        ids = new int[size];
+        precisions = new int[size];
+        channels = new String[size];
+        scheduledTimes = new long[size];
+        actualTimes = new long[size];
+    }
+}
@@ -0,0 +1,299 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.annotation.Keep;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+
+// Lifecycle events of notifications (scheduled, armed, fired, posted, tapped, dismissed) with the time the event was
+// expected at and the time it actually happened, so the delivery lag of alarms can be measured on real devices.
+//
+// Events are written into a fixed size ring buffer in a memory mapped file (unity_notifications/events.bin), recording
+// an event doesn't write to the file system on the calling thread. When the buffer is full the oldest events are
+// overwritten and counted as dropped. Unity drains the events in batches.
+//
+// Receivers may run in a separate process, so the sequences in the header are read and advanced while holding a lock on
+// the header region of the file, besides the class lock for the threads of this process.
+//
+// Channel ids are stored as their hash code, the names are kept in a table after the events (open addressing on the
+// hash), so drain finds them when record ran in another process. Names that don't fit, and the names recorded by older
+// versions of the plugin, are kept in UNITY_NOTIFICATION_EVENT_CHANNELS, which is only read in the process it was
+// written in.
+@Keep
+public class NotificationEventLog
+{
+    public static final int EVENT_SCHEDULED = 0;
+    public static final int EVENT_ARMED = 1;
+    public static final int EVENT_FIRED = 2;
+    public static final int EVENT_POSTED = 3;
+    public static final int EVENT_TAPPED = 4;
+    public static final int EVENT_DISMISSED = 5;
+    // Posted from a process Unity wasn't running in, the scheduled time is the time the process started.
+    public static final int EVENT_COLD_POSTED = 6;
+
+    static final String EVENT_LOG_FILE = "unity_notifications/events.bin";
+    static final String UNITY_NOTIFICATION_EVENT_CHANNELS = "UNITY_NOTIFICATION_EVENT_CHANNELS";
+    static final int CAPACITY = 1024;
+
+    // Header: magic, capacity, write sequence, read sequence, dropped count.
+    private static final int MAGIC = 0x554e4556; // "UNEV"
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_WRITE = 8;
+    private static final int OFFSET_READ = 16;
+    private static final int OFFSET_DROPPED = 24;
+
+    // Event: scheduled time, actual time, id, channel hash, type, precision.
+    private static final int EVENT_SIZE = 32;
+    private static final int OFFSET_SCHEDULED_TIME = 0;
+    private static final int OFFSET_ACTUAL_TIME = 8;
+    private static final int OFFSET_ID = 16;
+    private static final int OFFSET_CHANNEL = 20;
+    private static final int OFFSET_TYPE = 24;
+    private static final int OFFSET_PRECISION = 25;
+
+    // Channel: hash, name length, UTF-8 name. Slots aren't reused, a hash of 0 marks a free one.
+    private static final int CHANNEL_SLOTS = 128;
+    private static final int CHANNEL_SLOT_SIZE = 128;
+    private static final int MAX_CHANNEL_NAME_SIZE = CHANNEL_SLOT_SIZE - 6;
+    private static final int OFFSET_CHANNELS = HEADER_SIZE + CAPACITY * EVENT_SIZE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MappedByteBuffer mBuffer;
+    private static FileChannel mChannel;
+    private static boolean mUnavailable = false;
+    private static SparseBooleanArray mKnownChannels;
+
+    private static boolean open(Context context)
+    {
+        if (mBuffer != null)
+            return true;
+        if (mUnavailable)
+            return false;
+
+        File file = new File(context.getFilesDir(), EVENT_LOG_FILE);
+        file.getParentFile().mkdirs();
+
+        // The file stays open for locking the header.
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, OFFSET_CHANNELS + CHANNEL_SLOTS * CHANNEL_SLOT_SIZE);
+
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(OFFSET_CAPACITY) != CAPACITY)
+                {
+                    buffer.putInt(OFFSET_CAPACITY, CAPACITY);
+                    buffer.putLong(OFFSET_WRITE, 0L);
+                    buffer.putLong(OFFSET_READ, 0L);
+                    buffer.putLong(OFFSET_DROPPED, 0L);
+                    buffer.putInt(0, MAGIC);
+                }
+            } finally {
+                lock.release();
+            }
+
+            mBuffer = buffer;
+            mChannel = channel;
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Notification event log is not available: " + e.getMessage());
+            mUnavailable = true;
+            NotificationPayloadStore.closeQuietly(raf);
+        }
+
+        mKnownChannels = new SparseBooleanArray();
+        return mBuffer != null;
+    }
+
+    // The time the event was expected at. For repeating notifications that's the latest occurrence that was due.
+    static long getDueTime(Intent intent, long now)
+    {
+        long fireTime = intent.getLongExtra("fireTime", 0L);
+        long repeatInterval = intent.getLongExtra("repeatInterval", 0L);
+        if (repeatInterval > 0 && now > fireTime)
+            fireTime += (now - fireTime) / repeatInterval * repeatInterval;
+        return fireTime;
+    }
+
+    public static void record(Context context, int type, Intent intent, int precision)
+    {
+        long now = System.currentTimeMillis();
+        long scheduledTime = type == EVENT_SCHEDULED || type == EVENT_ARMED ? intent.getLongExtra("fireTime", 0L) : getDueTime(intent, now);
+        record(context, type, intent.getIntExtra("id", 0), intent.getStringExtra("channelID"), precision, scheduledTime, now);
+    }
+
+    public static synchronized void record(Context context, int type, int id, String channel, int precision, long scheduledTime, long actualTime)
+    {
+        if (!open(context))
+            return;
+
+        int channelHash = channel != null ? channel.hashCode() : 0;
+
+        FileLock lock = lockHeader();
+        if (lock == null)
+            return;
+
+        try {
+            if (channelHash != 0 && !mKnownChannels.get(channelHash))
+            {
+                mKnownChannels.put(channelHash, true);
+                if (!putChannelName(channelHash, channel))
+                    context.getSharedPreferences(UNITY_NOTIFICATION_EVENT_CHANNELS, Context.MODE_PRIVATE).edit()
+                            .putString(Integer.toString(channelHash), channel).apply();
+            }
+
+            long write = mBuffer.getLong(OFFSET_WRITE);
+            long read = mBuffer.getLong(OFFSET_READ);
+            if (write - read >= CAPACITY)
+            {
+                mBuffer.putLong(OFFSET_READ, read + 1);
+                mBuffer.putLong(OFFSET_DROPPED, mBuffer.getLong(OFFSET_DROPPED) + 1);
+            }
+
+            int offset = HEADER_SIZE + (int)(write % CAPACITY) * EVENT_SIZE;
+            mBuffer.putLong(offset + OFFSET_SCHEDULED_TIME, scheduledTime);
+            mBuffer.putLong(offset + OFFSET_ACTUAL_TIME, actualTime);
+            mBuffer.putInt(offset + OFFSET_ID, id);
+            mBuffer.putInt(offset + OFFSET_CHANNEL, channelHash);
+            mBuffer.put(offset + OFFSET_TYPE, (byte)type);
+            mBuffer.put(offset + OFFSET_PRECISION, (byte)precision);
+
+            // Publish the event only after it was written.
+            mBuffer.putLong(OFFSET_WRITE, write + 1);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Returns the offset of the slot holding the hash, or of the free slot it goes into, -1 if the table is full.
+    private static int findChannelSlot(int hash)
+    {
+        int start = (hash & 0x7fffffff) % CHANNEL_SLOTS;
+        for (int i = 0; i < CHANNEL_SLOTS; i++)
+        {
+            int offset = OFFSET_CHANNELS + (start + i) % CHANNEL_SLOTS * CHANNEL_SLOT_SIZE;
+            int slotHash = mBuffer.getInt(offset);
+            if (slotHash == hash || slotHash == 0)
+                return offset;
+        }
+        return -1;
+    }
+
+    // Adds the name to the channel table, returns false if it's too long or the table is full. Called with the header locked.
+    private static boolean putChannelName(int hash, String name)
+    {
+        byte[] bytes = name.getBytes(UTF_8);
+        int offset = findChannelSlot(hash);
+        if (bytes.length > MAX_CHANNEL_NAME_SIZE || offset < 0)
+            return false;
+
+        if (mBuffer.getInt(offset) == hash)
+            return true;
+
+        mBuffer.putShort(offset + 4, (short)bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+            mBuffer.put(offset + 6 + i, bytes[i]);
+        // The slot is taken only once the name is written.
+        mBuffer.putInt(offset, hash);
+        return true;
+    }
+
+    // Called with the header locked, returns null if the name isn't in the table.
+    private static String getChannelName(int hash)
+    {
+        int offset = findChannelSlot(hash);
+        if (offset < 0 || mBuffer.getInt(offset) != hash)
+            return null;
+
+        int length = Math.min(Math.max(mBuffer.getShort(offset + 4), 0), MAX_CHANNEL_NAME_SIZE);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = mBuffer.get(offset + 6 + i);
+        return new String(bytes, UTF_8);
+    }
+
+    // Locks the header against other processes, returns null if it can't be locked and the event log can't be used.
+    private static FileLock lockHeader()
+    {
+        try {
+            return mChannel.lock(0, HEADER_SIZE, false);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to lock notification event log: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void unlock(FileLock lock)
+    {
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+            ;
+        }
+    }
+
+    // Removes and returns up to maxCount of the oldest events.
+    public static synchronized NotificationEventBatch drain(Context context, int maxCount)
+    {
+        if (!open(context))
+            return new NotificationEventBatch(0);
+
+        FileLock lock = lockHeader();
+        if (lock == null)
+            return new NotificationEventBatch(0);
+
+        NotificationEventBatch batch;
+        int[] channelHashes;
+        try {
+            long write = mBuffer.getLong(OFFSET_WRITE);
+            long read = mBuffer.getLong(OFFSET_READ);
+            int count = (int)Math.min(Math.max(maxCount, 0), write - read);
+
+            batch = new NotificationEventBatch(count);
+            channelHashes = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                int offset = HEADER_SIZE + (int)((read + i) % CAPACITY) * EVENT_SIZE;
+                channelHashes[i] = mBuffer.getInt(offset + OFFSET_CHANNEL);
+                if (channelHashes[i] != 0)
+                    batch.channels[i] = getChannelName(channelHashes[i]);
+
+                batch.scheduledTimes[i] = mBuffer.getLong(offset + OFFSET_SCHEDULED_TIME);
+                batch.actualTimes[i] = mBuffer.getLong(offset + OFFSET_ACTUAL_TIME);
+                batch.ids[i] = mBuffer.getInt(offset + OFFSET_ID);
+                batch.types[i] = mBuffer.get(offset + OFFSET_TYPE);
+                batch.precisions[i] = mBuffer.get(offset + OFFSET_PRECISION);
+            }
+
+            batch.dropped = mBuffer.getLong(OFFSET_DROPPED);
+            mBuffer.putLong(OFFSET_DROPPED, 0L);
+            mBuffer.putLong(OFFSET_READ, read + count);
+        } finally {
+            unlock(lock);
+        }
+
+        // Names that aren't in the table are looked up after the header is unlocked.
+        SharedPreferences channels = null;
+        for (int i = 0; i < channelHashes.length; i++)
+        {
+            if (channelHashes[i] == 0 || batch.channels[i] != null)
+                continue;
+            if (channels == null)
+                channels = context.getSharedPreferences(UNITY_NOTIFICATION_EVENT_CHANNELS, Context.MODE_PRIVATE);
+            batch.channels[i] = channels.getString(Integer.toString(channelHashes[i]), null);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,192 @@
+package com.unity.androidnotifications;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.annotation.Keep;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Periodically purges notification records that are no longer needed:
+//  - delivered notifications older than DELIVERED_NOTIFICATION_RETENTION,
+//  - stale one-time notifications, whose alarm is gone STALE_RECORD_GRACE after their fire time without them being
+//    delivered (the alarm fired while storage failed, the app was force stopped, ...),
+//  - records that are neither scheduled nor delivered.
+//
+// Sweeps only look at the records that might have expired instead of all stored ones. Scheduled one-time notifications
+// are taken from the NotificationScheduleIndex, which is sorted by fire time, once their fire time is STALE_RECORD_GRACE
+// ago. Delivered records and records that are neither scheduled nor delivered are kept in a NotificationTimingWheel keyed
+// by the time they expire. The wheel lives in memory only, it's built the first time it's needed in a process from the
+// delivered times and the stored and scheduled ids, without decoding any record. A sweep running in a process started
+// for it (the usual case) builds it first, which is a pass over all delivered and stored ids, later sweeps of the same
+// process only visit what expired. Sweeps run from an inexact, non waking repeating alarm, the receiver runs them on a
+// thread of their own.
+@Keep
+public class NotificationExpirySweeper
+{
+    public static final String ACTION_SWEEP_EXPIRED = "com.unity.androidnotifications.SWEEP_EXPIRED";
+
+    static final long SWEEP_INTERVAL = AlarmManager.INTERVAL_HALF_DAY;
+    static final long STALE_RECORD_GRACE = 24 * 60 * 60 * 1000L;
+
+    private static NotificationTimingWheel mWheel;
+
+    static synchronized void trackDelivered(int id, long deliveredAt)
+    {
+        if (mWheel == null)
+            return;
+
+        mWheel.add(id, deliveredAt + UnityNotificationManager.DELIVERED_NOTIFICATION_RETENTION);
+    }
+
+    // Until the wheel is loaded the records are only tracked in storage, loading picks them up from there. Visits every
+    // delivered and stored id once.
+    private static void load(Context context, long now)
+    {
+        if (mWheel != null)
+            return;
+
+        mWheel = new NotificationTimingWheel(now);
+
+        SharedPreferences deliveredPrefs = context.getSharedPreferences(UnityNotificationManager.UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE);
+        NotificationStore store = UnityNotificationManager.getNotificationStore(context);
+        Set<Integer> unreferenced = store.getIds();
+        unreferenced.removeAll(store.getScheduledIds());
+
+        for (Map.Entry<String, ?> entry : deliveredPrefs.getAll().entrySet())
+        {
+            try {
+                int id = Integer.parseInt(entry.getKey());
+                long deliveredAt = entry.getValue() instanceof Long ? (Long)entry.getValue() : 0L;
+                trackDelivered(id, deliveredAt);
+                unreferenced.remove(id);
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+
+        for (int id : unreferenced)
+            mWheel.add(id, now);
+    }
+
+    private static Intent buildSweepIntent(Context context)
+    {
+        Intent intent = new Intent(context, UnityNotificationManager.class);
+        intent.setAction(ACTION_SWEEP_EXPIRED);
+        return intent;
+    }
+
+    // The sweep alarm is armed for as long as the app is installed, so it's gone only if all alarms of the app were wiped.
+    static boolean isSweepScheduled(Context context)
+    {
+        return PendingIntent.getBroadcast(context, 0, buildSweepIntent(context), PendingIntent.FLAG_NO_CREATE) != null;
+    }
+
+    // Arms the repeating sweep alarm unless it already is.
+    static void scheduleSweep(Context context)
+    {
+        if (isSweepScheduled(context))
+            return;
+
+        Intent intent = buildSweepIntent(context);
+        PendingIntent broadcast = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.RTC, System.currentTimeMillis() + SWEEP_INTERVAL, SWEEP_INTERVAL, broadcast);
+    }
+
+    // Purges the records that expired since the last sweep. Returns {purged, stale}, stale counts the purged records
+    // of notifications that were never delivered or were no longer tracked at all.
+    public static synchronized int[] sweep(Context context)
+    {
+        long now = System.currentTimeMillis();
+        load(context, now);
+
+        List<Integer> due = new ArrayList<Integer>();
+        mWheel.advance(now, due);
+        Set<Integer> expired = new LinkedHashSet<Integer>(due);
+        for (NotificationScheduleIndex.Entry entry : NotificationScheduleIndex.getOneTimeUntil(context, now - STALE_RECORD_GRACE))
+            expired.add(entry.id);
+        if (expired.isEmpty())
+            return new int[] { 0, 0 };
+
+        // Nothing is scheduled again between checking a record and purging it.
+        synchronized (UnityNotificationManager.mScheduleLock)
+        {
+            Set<String> scheduledIds = UnityNotificationManager.getScheduledNotificationIds(context);
+            SharedPreferences deliveredPrefs = context.getSharedPreferences(UnityNotificationManager.UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE);
+            NotificationStore store = UnityNotificationManager.getNotificationStore(context);
+
+            Set<String> purged = new HashSet<String>();
+            Set<String> unindexed = new HashSet<String>();
+            SharedPreferences.Editor deliveredEditor = null;
+            int stale = 0;
+
+            for (int id : expired)
+            {
+                String idStr = Integer.toString(id);
+                boolean isScheduled = scheduledIds.contains(idStr);
+
+                if (deliveredPrefs.contains(idStr))
+                {
+                    // Delivered again since this entry was added, the newer entry will take care of it.
+                    if (deliveredPrefs.getLong(idStr, 0L) + UnityNotificationManager.DELIVERED_NOTIFICATION_RETENTION > now)
+                        continue;
+
+                    if (deliveredEditor == null)
+                        deliveredEditor = deliveredPrefs.edit();
+                    deliveredEditor.remove(idStr);
+
+                    if (!isScheduled)
+                        purged.add(idStr);
+                }
+                else if (isScheduled)
+                {
+                    Map<String, Object> fields = store.getFields(id);
+                    if (fields != null)
+                    {
+                        Object fireTime = fields.get("fireTime");
+                        Object repeatInterval = fields.get("repeatInterval");
+                        if (repeatInterval instanceof Long && (Long)repeatInterval > 0)
+                            continue;
+
+                        // Rescheduled for later since this entry was added.
+                        if (fireTime instanceof Long && (Long)fireTime + STALE_RECORD_GRACE > now)
+                            continue;
+                    }
+
+                    // The alarm is still pending, it might just be delayed a lot. The next sweep looks at it again.
+                    if (UnityNotificationManager.isNotificationAlarmRegistered(id, context))
+                        continue;
+
+                    purged.add(idStr);
+                    stale++;
+                }
+                else if (store.contains(id))
+                {
+                    purged.add(idStr);
+                    stale++;
+                }
+                else
+                {
+                    // Left in the schedule index without a record.
+                    unindexed.add(idStr);
+                }
+            }
+
+            if (deliveredEditor != null)
+                deliveredEditor.apply();
+            if (!unindexed.isEmpty())
+                NotificationScheduleIndex.remove(context, unindexed);
+            UnityNotificationManager.purgeNotificationRecords(context, purged);
+
+            return new int[] { purged.size(), stale };
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.unity.androidnotifications;
+
+// 64-bit FNV-1a, the hash of notification versions, payload contents and channel definitions. It's stored across
+// launches, so it must not change between versions of the plugin.
+class NotificationHash
+{
+    static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    static long hash(CharSequence text)
+    {
+        return hash(OFFSET_BASIS, text);
+    }
+
+    // Continues the hash with more text, pass OFFSET_BASIS to start a new one.
+    static long hash(long hash, CharSequence text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            hash ^= text.charAt(i);
+            hash *= PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,200 @@
+package com.unity.androidnotifications;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+
+import java.util.HashMap;
+
+// Updates of notifications that are already shown (progress, timers, ...). The builder of a notification is built once,
+// on it's first update, and kept, later updates only change the fields they carry. Updates of a notification are posted
+// at most once every mMinInterval, updates arriving faster are coalesced and the latest state is posted when the
+// interval has passed, so no update is lost to the system's rate limit.
+//
+// The changes are given as an intent with the same extras as the notification intent: "textTitle", "textContent" and
+// "number", plus "progress", "progressMax" and "progressIndeterminate" for a progress bar.
+//
+// Updates stop when the notification is canceled, dismissed or tapped, which the dismiss and tap callbacks tell. Posts
+// made right away rely on them, only the first update of a notification and coalesced posts (which run later, when the
+// callbacks may have been missed while the app wasn't running) check the active notifications on Android 6.0 and later,
+// so a notification that is no longer shown is never posted again.
+class NotificationLiveUpdates
+{
+    static final long DEFAULT_MIN_INTERVAL = 1000L;
+
+    private static class Entry
+    {
+        final int id;
+        final Notification.Builder builder;
+        final boolean bigText;
+        long postedAt = -1L; // SystemClock.uptimeMillis() of the last post
+        boolean scheduled;
+        Runnable post;
+        // The progress bar as last set, an update only changes the values it carries.
+        int progress;
+        int progressMax = 100;
+        boolean progressIndeterminate;
+
+        Entry(int id, Notification.Builder builder, boolean bigText)
+        {
+            this.id = id;
+            this.builder = builder;
+            this.bigText = bigText;
+        }
+    }
+
+    private static final HashMap<Integer, Entry> mEntries = new HashMap<Integer, Entry>();
+    private static Handler mHandler;
+    private static long mMinInterval = DEFAULT_MIN_INTERVAL;
+
+    static synchronized void setMinInterval(long minInterval)
+    {
+        mMinInterval = Math.max(minInterval, 0L);
+    }
+
+    // Applies the changes to the notification and posts it now or once the interval since the last post has passed.
+    // Returns false if the notification isn't stored or isn't shown anymore, so there is nothing to update.
+    static synchronized boolean update(final Context context, int id, Intent changes)
+    {
+        Entry entry = mEntries.get(id);
+        boolean isNew = entry == null;
+        if (isNew)
+        {
+            entry = createEntry(context, id);
+            if (entry == null)
+                return false;
+            mEntries.put(id, entry);
+        }
+
+        apply(entry, changes);
+
+        long now = SystemClock.uptimeMillis();
+        long wait = entry.postedAt < 0 ? 0L : entry.postedAt + mMinInterval - now;
+        if (wait <= 0)
+            return post(context, entry, now, isNew);
+
+        if (!entry.scheduled)
+        {
+            if (mHandler == null)
+                mHandler = new Handler(Looper.getMainLooper());
+
+            final Entry scheduledEntry = entry;
+            entry.scheduled = true;
+            entry.post = new Runnable() {
+                @Override
+                public void run()
+                {
+                    postScheduled(context, scheduledEntry);
+                }
+            };
+            mHandler.postDelayed(entry.post, wait);
+        }
+        return true;
+    }
+
+    private static synchronized void postScheduled(Context context, Entry entry)
+    {
+        // Ended while the post was waiting.
+        if (mEntries.get(entry.id) != entry)
+            return;
+
+        post(context, entry, SystemClock.uptimeMillis(), true);
+    }
+
+    // Returns false and drops the entry if checkShown is set and the notification was removed since it was posted.
+    private static boolean post(Context context, Entry entry, long now, boolean checkShown)
+    {
+        entry.scheduled = false;
+        entry.post = null;
+        if (checkShown && !isShown(context, entry.id))
+        {
+            mEntries.remove(entry.id);
+            return false;
+        }
+
+        entry.postedAt = now;
+        UnityNotificationManager.getNotificationManager(context).notify(entry.id, entry.builder.build());
+        return true;
+    }
+
+    // Only known on Android 6.0 and later, earlier the notification is assumed to be shown.
+    private static boolean isShown(Context context, int id)
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return true;
+
+        for (StatusBarNotification notification : UnityNotificationManager.getNotificationManager(context).getActiveNotifications())
+        {
+            if (notification.getId() == id)
+                return true;
+        }
+        return false;
+    }
+
+    // Stops updating the notification, called when it's canceled, dismissed or tapped so a pending update doesn't bring
+    // it back.
+    static synchronized void end(int id)
+    {
+        Entry entry = mEntries.remove(id);
+        if (entry != null && entry.post != null)
+            mHandler.removeCallbacks(entry.post);
+    }
+
+    static synchronized void endAll()
+    {
+        for (Entry entry : mEntries.values())
+        {
+            if (entry.post != null)
+                mHandler.removeCallbacks(entry.post);
+        }
+        mEntries.clear();
+    }
+
+    private static Entry createEntry(Context context, int id)
+    {
+        Intent intent = UnityNotificationManager.loadNotificationIntentData(Integer.toString(id), context);
+        if (intent == null)
+            return null;
+
+        NotificationPlan plan = UnityNotificationManager.loadNotificationPlan(intent, context);
+        Notification.Builder builder = UnityNotificationManager.buildNotification(plan, intent, context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            UnityNotificationManagerNougat.applyGroupSettings(plan, builder);
+
+        // Only the first post makes a sound or vibrates.
+        builder.setOnlyAlertOnce(true);
+        return new Entry(id, builder, intent.getIntExtra("style", 0) == 2);
+    }
+
+    private static void apply(Entry entry, Intent changes)
+    {
+        Notification.Builder builder = entry.builder;
+
+        if (changes.hasExtra("textTitle"))
+            builder.setContentTitle(changes.getStringExtra("textTitle"));
+
+        if (changes.hasExtra("textContent"))
+        {
+            String textContent = changes.getStringExtra("textContent");
+            builder.setContentText(textContent);
+            if (entry.bigText)
+                builder.setStyle(new Notification.BigTextStyle().bigText(textContent));
+        }
+
+        if (changes.hasExtra("number"))
+            builder.setNumber(changes.getIntExtra("number", 0));
+
+        if (changes.hasExtra("progress") || changes.hasExtra("progressMax") || changes.hasExtra("progressIndeterminate"))
+        {
+            entry.progress = changes.getIntExtra("progress", entry.progress);
+            entry.progressMax = changes.getIntExtra("progressMax", entry.progressMax);
+            entry.progressIndeterminate = changes.getBooleanExtra("progressIndeterminate", entry.progressIndeterminate);
+            builder.setProgress(entry.progressMax, entry.progress, entry.progressIndeterminate);
+        }
+    }
+}
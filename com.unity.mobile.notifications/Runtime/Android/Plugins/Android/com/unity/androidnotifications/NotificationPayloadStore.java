@@ -0,0 +1,154 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.Keep;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Set;
+
+// Stores large "data" payloads of notifications in separate files, so only a small reference ("dataRef") travels
+// inside the alarm and tap intents and the stored notification intents. The payload is loaded when it's asked for.
+//
+// Payloads are kept after the notification is delivered, since the app might still be opened by tapping it, and are
+// removed when the notification is canceled or replaced, or once they are older than PAYLOAD_RETENTION.
+@Keep
+public class NotificationPayloadStore
+{
+    public static final int INLINE_PAYLOAD_LIMIT = 512;
+    static final long PAYLOAD_RETENTION = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final String PAYLOAD_DIRECTORY = "unity_notifications/payloads";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static File getPayloadDirectory(Context context)
+    {
+        return new File(context.getFilesDir(), PAYLOAD_DIRECTORY);
+    }
+
+    private static File getPayloadFile(Context context, int id)
+    {
+        return new File(getPayloadDirectory(context), Integer.toString(id));
+    }
+
+    public static String hashPayload(String payload)
+    {
+        return Long.toHexString(NotificationHash.hash(payload));
+    }
+
+    // The part of a payload reference which identifies the payload content.
+    static String getReferenceHash(String dataRef)
+    {
+        int separator = dataRef.indexOf(':');
+        return separator >= 0 ? dataRef.substring(separator + 1) : dataRef;
+    }
+
+    // Moves the "data" extra into a payload file if it's larger than INLINE_PAYLOAD_LIMIT and replaces it with a "dataRef" extra.
+    public static void moveOutOfLine(Context context, Intent intent)
+    {
+        String data = intent.getStringExtra("data");
+        if (data == null || data.length() <= INLINE_PAYLOAD_LIMIT)
+            return;
+
+        int id = intent.getIntExtra("id", 0);
+        File file = getPayloadFile(context, id);
+        file.getParentFile().mkdirs();
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(data.getBytes(UTF8));
+        } catch (IOException e) {
+            // Keep the payload inline, it's still correct just more expensive.
+            Log.w("UnityNotifications", "Failed to store notification payload out of line: " + e.getMessage());
+            file.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+
+        intent.removeExtra("data");
+        intent.putExtra("dataRef", id + ":" + hashPayload(data));
+    }
+
+    // Returns the "data" payload of the notification, loading it from it's payload file if it was stored out of line.
+    public static String loadPayload(Context context, Intent intent)
+    {
+        String data = intent.getStringExtra("data");
+        if (data != null)
+            return data;
+
+        String dataRef = intent.getStringExtra("dataRef");
+        if (dataRef == null)
+            return null;
+
+        int id = intent.getIntExtra("id", 0);
+        File file = getPayloadFile(context, id);
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            String payload = new String(readFully(in), UTF8);
+
+            // The notification might have been rescheduled with a different payload in the meantime.
+            if (!hashPayload(payload).equals(getReferenceHash(dataRef)))
+                return null;
+            return payload;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    public static void deletePayload(Context context, int id)
+    {
+        File file = getPayloadFile(context, id);
+        if (file.exists())
+            file.delete();
+    }
+
+    // Deletes the payloads of notifications which are no longer scheduled and are older than PAYLOAD_RETENTION.
+    public static void prunePayloads(Context context, Set<String> scheduledIds)
+    {
+        File[] files = getPayloadDirectory(context).listFiles();
+        if (files == null)
+            return;
+
+        long expireBefore = System.currentTimeMillis() - PAYLOAD_RETENTION;
+        for (File file : files)
+        {
+            if (!scheduledIds.contains(file.getName()) && file.lastModified() < expireBefore)
+                file.delete();
+        }
+    }
+
+    static byte[] readFully(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    static void closeQuietly(java.io.Closeable closeable)
+    {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            ;
+        }
+    }
+}
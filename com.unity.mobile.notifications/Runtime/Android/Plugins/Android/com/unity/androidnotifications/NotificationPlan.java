@@ -0,0 +1,213 @@
+package com.unity.androidnotifications;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.Keep;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Everything about a notification that can be resolved when it's scheduled instead of when it's delivered:
+// icon resource ids, the pre-Oreo channel settings (priority, defaults, vibration, visibility) and the group settings.
+// Resource ids are only valid for the app build they were resolved in, so the plan records the app's versionCode
+// and is ignored (and compiled again) if the notification is delivered after the app was updated.
+@Keep
+public class NotificationPlan
+{
+    private static final int FORMAT_VERSION = 1;
+    private static int mAppVersionCode = -1;
+
+    public int versionCode;
+    public int sdkInt;
+
+    public int smallIconId;
+    public int largeIconId;
+
+    // Pre-Oreo devices don't have channels, their settings are applied to the notification.
+    public boolean applyChannelSettings;
+    public int priority;
+    public int defaults;
+    public long[] vibrationPattern;
+    public int lockscreenVisibility;
+
+    public String group;
+    public boolean groupSummary;
+    public String sortKey;
+    public int groupAlertBehaviour;
+
+    static synchronized int getAppVersionCode(Context context)
+    {
+        if (mAppVersionCode == -1)
+        {
+            try {
+                mAppVersionCode = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+            } catch (PackageManager.NameNotFoundException e) {
+                mAppVersionCode = 0;
+            }
+        }
+        return mAppVersionCode;
+    }
+
+    public static NotificationPlan compile(Intent intent, Context context)
+    {
+        NotificationPlan plan = new NotificationPlan();
+        plan.versionCode = getAppVersionCode(context);
+        plan.sdkInt = Build.VERSION.SDK_INT;
+
+        plan.smallIconId = UnityNotificationManager.findResourceidInContextByName(intent.getStringExtra("smallIconStr"), context);
+        plan.largeIconId = UnityNotificationManager.findResourceidInContextByName(intent.getStringExtra("largeIconStr"), context);
+
+        if (plan.smallIconId == 0) {
+            plan.smallIconId = context.getApplicationInfo().icon;
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+        {
+            NotificationChannelWrapper fakeNotificationChannel = UnityNotificationManager.getNotificationChannel(intent.getStringExtra("channelID"), context);
+
+            plan.applyChannelSettings = true;
+            if (fakeNotificationChannel.vibrationPattern != null && fakeNotificationChannel.vibrationPattern.length > 0)
+            {
+                plan.defaults = Notification.DEFAULT_LIGHTS | Notification.DEFAULT_SOUND;
+                plan.vibrationPattern = fakeNotificationChannel.vibrationPattern;
+            }
+            else
+            {
+                plan.defaults = Notification.DEFAULT_ALL;
+            }
+
+            plan.lockscreenVisibility = fakeNotificationChannel.lockscreenVisibility;
+
+            // Need to convert Oreo channel importance to pre-Oreo priority.
+            switch (fakeNotificationChannel.importance)
+            {
+                case NotificationManager.IMPORTANCE_HIGH:
+                    plan.priority = Notification.PRIORITY_MAX;
+                    break;
+                case NotificationManager.IMPORTANCE_DEFAULT:
+                    plan.priority = Notification.PRIORITY_DEFAULT;
+                    break;
+                case NotificationManager.IMPORTANCE_LOW:
+                    plan.priority = Notification.PRIORITY_LOW;
+                    break;
+                case NotificationManager.IMPORTANCE_NONE:
+                    plan.priority = Notification.PRIORITY_MIN;
+                    break;
+                default:
+                    plan.priority = Notification.PRIORITY_DEFAULT;
+            }
+        }
+
+        plan.group = intent.getStringExtra("group");
+        plan.groupSummary = intent.getBooleanExtra("groupSummary", false);
+        plan.sortKey = intent.getStringExtra("sortKey");
+        plan.groupAlertBehaviour = intent.getIntExtra("groupAlertBehaviour", -1);
+
+        return plan;
+    }
+
+    // A plan can only be used in the same app build and OS version it was compiled for.
+    public boolean isValid(Context context)
+    {
+        return versionCode == getAppVersionCode(context) && sdkInt == Build.VERSION.SDK_INT;
+    }
+
+    public byte[] toByteArray()
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(versionCode);
+            out.writeInt(sdkInt);
+            out.writeInt(smallIconId);
+            out.writeInt(largeIconId);
+
+            out.writeBoolean(applyChannelSettings);
+            if (applyChannelSettings)
+            {
+                out.writeInt(priority);
+                out.writeInt(defaults);
+                out.writeInt(lockscreenVisibility);
+                out.writeInt(vibrationPattern != null ? vibrationPattern.length : -1);
+                if (vibrationPattern != null)
+                {
+                    for (long v : vibrationPattern)
+                        out.writeLong(v);
+                }
+            }
+
+            writeString(out, group);
+            out.writeBoolean(groupSummary);
+            writeString(out, sortKey);
+            out.writeInt(groupAlertBehaviour);
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Returns null if the plan can't be read, in which case the notification should be built from it's intent.
+    public static NotificationPlan fromByteArray(byte[] serialized)
+    {
+        if (serialized == null || serialized.length == 0)
+            return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+            if (in.readByte() != FORMAT_VERSION)
+                return null;
+
+            NotificationPlan plan = new NotificationPlan();
+            plan.versionCode = in.readInt();
+            plan.sdkInt = in.readInt();
+            plan.smallIconId = in.readInt();
+            plan.largeIconId = in.readInt();
+
+            plan.applyChannelSettings = in.readBoolean();
+            if (plan.applyChannelSettings)
+            {
+                plan.priority = in.readInt();
+                plan.defaults = in.readInt();
+                plan.lockscreenVisibility = in.readInt();
+                int vibrationLength = in.readInt();
+                if (vibrationLength >= 0)
+                {
+                    plan.vibrationPattern = new long[vibrationLength];
+                    for (int i = 0; i < vibrationLength; i++)
+                        plan.vibrationPattern[i] = in.readLong();
+                }
+            }
+
+            plan.group = readString(in);
+            plan.groupSummary = in.readBoolean();
+            plan.sortKey = readString(in);
+            plan.groupAlertBehaviour = in.readInt();
+            return plan;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
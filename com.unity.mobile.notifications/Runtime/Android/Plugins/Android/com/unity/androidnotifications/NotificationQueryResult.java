@@ -0,0 +1,18 @@
+package com.unity.androidnotifications;
+
+import android.support.annotation.Keep;
+
+@Keep
+public class NotificationQueryResult {
+
+    public int[] ids;
+    public long[] fireTimes;
+    // Pass to the next query to get the following page, null if there are no more results.
+    public String cursor;
+
+    public NotificationQueryResult(int size)
+    {
+        ids = new int[size];
+        fireTimes = new long[size];
+    }
+}
@@ -0,0 +1,395 @@
+package com.unity.androidnotifications;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compact binary encoding of a notification's extras.
+//
+// Every field is stored as <key><type><value>. Keys and short strings are references into the shared
+// NotificationStringDictionary, integers are zigzag varints and longs close to the fire time (like the timestamp)
+// are stored as a delta to it. "fireTime" is always written first so the deltas can be resolved when decoding.
+class NotificationRecordCodec
+{
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Longer strings (usually unique payloads) are stored inline instead of going through the dictionary.
+    static final int MAX_INTERNED_STRING_LENGTH = 128;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING_REF = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+    private static final int TYPE_LONG_ARRAY = 6;
+    private static final int TYPE_STRING = 7;
+    private static final int TYPE_FIRE_TIME_DELTA = 8;
+
+    private static final String FIRE_TIME = "fireTime";
+
+    static class Encoded
+    {
+        final byte[] bytes;
+        final int[] references;
+
+        Encoded(byte[] bytes, int[] references)
+        {
+            this.bytes = bytes;
+            this.references = references;
+        }
+    }
+
+    static class Reader
+    {
+        final byte[] buffer;
+        int position;
+        final int end;
+
+        Reader(byte[] buffer, int offset, int length)
+        {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        boolean hasMore()
+        {
+            return position < end;
+        }
+
+        int readByte() throws IOException
+        {
+            if (position >= end)
+                throw new IOException("Unexpected end of notification record");
+            return buffer[position++] & 0xff;
+        }
+
+        long readVarLong() throws IOException
+        {
+            long result = 0;
+            int shift = 0;
+            while (true)
+            {
+                int b = readByte();
+                result |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return result;
+                shift += 7;
+                if (shift > 63)
+                    throw new IOException("Malformed varint in notification record");
+            }
+        }
+
+        int readVarInt() throws IOException
+        {
+            return (int)readVarLong();
+        }
+
+        long readSignedVarLong() throws IOException
+        {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        // Reads the length of something taking at least a byte per unit, checked against the bytes that are left.
+        int readLength() throws IOException
+        {
+            int length = readVarInt();
+            if (length < 0 || length > end - position)
+                throw new IOException("Malformed length in notification record");
+            return length;
+        }
+
+        String readString() throws IOException
+        {
+            int length = readLength();
+            String value = new String(buffer, position, length, UTF8);
+            position += length;
+            return value;
+        }
+
+        byte[] readBytes() throws IOException
+        {
+            int length = readLength();
+            byte[] value = new byte[length];
+            System.arraycopy(buffer, position, value, 0, length);
+            position += length;
+            return value;
+        }
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            out.write((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+    static void writeSignedVarLong(ByteArrayOutputStream out, long value)
+    {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeString(ByteArrayOutputStream out, String value)
+    {
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static void writeBytes(ByteArrayOutputStream out, byte[] bytes)
+    {
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // Writes the strings of the dictionary as a count followed by (index, string) pairs.
+    static void writeDictionary(ByteArrayOutputStream out, NotificationStringDictionary dictionary)
+    {
+        writeVarLong(out, dictionary.size());
+        for (int i = 0; i < dictionary.capacity(); i++)
+        {
+            String value = dictionary.get(i);
+            if (value == null)
+                continue;
+            writeVarLong(out, i);
+            writeString(out, value);
+        }
+    }
+
+    static void readDictionary(Reader in, NotificationStringDictionary dictionary) throws IOException
+    {
+        int size = in.readVarInt();
+        for (int i = 0; i < size; i++)
+        {
+            int index = in.readVarInt();
+            dictionary.restore(index, in.readString());
+        }
+    }
+
+    // Writes the extras along with the strings they reference, so they can be read without a shared dictionary.
+    static void writeStandalone(ByteArrayOutputStream out, Map<String, Object> extras)
+    {
+        NotificationStringDictionary dictionary = new NotificationStringDictionary();
+        Encoded encoded = encode(extras, dictionary);
+        writeDictionary(out, dictionary);
+        writeBytes(out, encoded.bytes);
+    }
+
+    // Standalone records come from outside (snapshots), every length and index is checked before anything is allocated.
+    static Map<String, Object> readStandalone(Reader in) throws IOException
+    {
+        // The dictionary was written from a new one, so it's indices are 0 to size - 1.
+        NotificationStringDictionary dictionary = new NotificationStringDictionary();
+        int size = in.readLength();
+        for (int i = 0; i < size; i++)
+        {
+            int index = in.readVarInt();
+            if (index < 0 || index >= size)
+                throw new IOException("Malformed string index in notification record");
+            dictionary.restore(index, in.readString());
+        }
+        return decode(in.readBytes(), dictionary);
+    }
+
+    // Encodes the extras, taking dictionary references for every interned string. Values of unsupported types are skipped.
+    static Encoded encode(Map<String, Object> extras, NotificationStringDictionary dictionary)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        List<Integer> references = new ArrayList<Integer>();
+
+        // Sorted keys keep the encoding stable, fireTime goes first as other longs may be stored relative to it.
+        TreeMap<String, Object> sorted = new TreeMap<String, Object>(extras);
+        Object fireTimeValue = sorted.remove(FIRE_TIME);
+        boolean hasFireTime = fireTimeValue instanceof Long;
+        long fireTime = hasFireTime ? (Long)fireTimeValue : 0L;
+
+        if (hasFireTime)
+            writeField(out, references, dictionary, FIRE_TIME, fireTimeValue, false, 0L);
+
+        for (Map.Entry<String, Object> entry : sorted.entrySet())
+            writeField(out, references, dictionary, entry.getKey(), entry.getValue(), hasFireTime, fireTime);
+
+        int[] refs = new int[references.size()];
+        for (int i = 0; i < refs.length; i++)
+            refs[i] = references.get(i);
+        return new Encoded(out.toByteArray(), refs);
+    }
+
+    private static void writeField(ByteArrayOutputStream out, List<Integer> references, NotificationStringDictionary dictionary,
+                                   String key, Object value, boolean hasFireTime, long fireTime)
+    {
+        ByteArrayOutputStream field = new ByteArrayOutputStream(16);
+
+        if (value == null)
+            field.write(TYPE_NULL);
+        else if (value instanceof String)
+        {
+            String str = (String)value;
+            if (str.length() <= MAX_INTERNED_STRING_LENGTH)
+            {
+                int index = dictionary.acquire(str);
+                references.add(index);
+                field.write(TYPE_STRING_REF);
+                writeVarLong(field, index);
+            }
+            else
+            {
+                field.write(TYPE_STRING);
+                writeString(field, str);
+            }
+        }
+        else if (value instanceof Integer)
+        {
+            field.write(TYPE_INT);
+            writeSignedVarLong(field, (Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            long v = (Long)value;
+            if (hasFireTime && Math.abs(v - fireTime) < Math.abs(v))
+            {
+                field.write(TYPE_FIRE_TIME_DELTA);
+                writeSignedVarLong(field, v - fireTime);
+            }
+            else
+            {
+                field.write(TYPE_LONG);
+                writeSignedVarLong(field, v);
+            }
+        }
+        else if (value instanceof Boolean)
+            field.write((Boolean)value ? TYPE_TRUE : TYPE_FALSE);
+        else if (value instanceof long[])
+        {
+            long[] array = (long[])value;
+            field.write(TYPE_LONG_ARRAY);
+            writeVarLong(field, array.length);
+            for (long v : array)
+                writeSignedVarLong(field, v);
+        }
+        else
+        {
+            // Only the types used by notification extras are supported.
+            return;
+        }
+
+        int keyIndex = dictionary.acquire(key);
+        references.add(keyIndex);
+        writeVarLong(out, keyIndex);
+
+        byte[] bytes = field.toByteArray();
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static Map<String, Object> decode(byte[] bytes, NotificationStringDictionary dictionary) throws IOException
+    {
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        Reader in = new Reader(bytes, 0, bytes.length);
+        long fireTime = 0L;
+
+        while (in.hasMore())
+        {
+            String key = dictionary.get(in.readVarInt());
+            if (key == null)
+                throw new IOException("Notification record references a missing key");
+
+            Object value;
+            int type = in.readByte();
+            switch (type)
+            {
+                case TYPE_NULL:
+                    value = null;
+                    break;
+                case TYPE_STRING_REF:
+                    value = dictionary.get(in.readVarInt());
+                    if (value == null)
+                        throw new IOException("Notification record references a missing string");
+                    break;
+                case TYPE_INT:
+                    value = (int)in.readSignedVarLong();
+                    break;
+                case TYPE_LONG:
+                    value = in.readSignedVarLong();
+                    break;
+                case TYPE_TRUE:
+                    value = true;
+                    break;
+                case TYPE_FALSE:
+                    value = false;
+                    break;
+                case TYPE_LONG_ARRAY:
+                    long[] array = new long[in.readLength()];
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = in.readSignedVarLong();
+                    value = array;
+                    break;
+                case TYPE_STRING:
+                    value = in.readString();
+                    break;
+                case TYPE_FIRE_TIME_DELTA:
+                    value = fireTime + in.readSignedVarLong();
+                    break;
+                default:
+                    throw new IOException("Unknown field type in notification record: " + type);
+            }
+
+            if (key.equals(FIRE_TIME) && value instanceof Long)
+                fireTime = (Long)value;
+            extras.put(key, value);
+        }
+        return extras;
+    }
+
+    // Returns the dictionary indices referenced by an encoded record.
+    static int[] collectReferences(byte[] bytes) throws IOException
+    {
+        List<Integer> references = new ArrayList<Integer>();
+        Reader in = new Reader(bytes, 0, bytes.length);
+
+        while (in.hasMore())
+        {
+            references.add(in.readVarInt());
+            int type = in.readByte();
+            switch (type)
+            {
+                case TYPE_STRING_REF:
+                    references.add(in.readVarInt());
+                    break;
+                case TYPE_INT:
+                case TYPE_LONG:
+                case TYPE_FIRE_TIME_DELTA:
+                    in.readVarLong();
+                    break;
+                case TYPE_LONG_ARRAY:
+                    int length = in.readVarInt();
+                    for (int i = 0; i < length; i++)
+                        in.readVarLong();
+                    break;
+                case TYPE_STRING:
+                    in.readString();
+                    break;
+                case TYPE_NULL:
+                case TYPE_TRUE:
+                case TYPE_FALSE:
+                    break;
+                default:
+                    throw new IOException("Unknown field type in notification record: " + type);
+            }
+        }
+
+        int[] refs = new int[references.size()];
+        for (int i = 0; i < refs.length; i++)
+            refs[i] = references.get(i);
+        return refs;
+    }
+}
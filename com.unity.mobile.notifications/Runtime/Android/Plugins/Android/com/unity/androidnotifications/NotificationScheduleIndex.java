@@ -0,0 +1,454 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.annotation.Keep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+// Compact summary (fire time, repeat interval, channel and group) of every scheduled notification, kept sorted by fire time.
+// Allows answering queries over the scheduled notifications without deserializing the stored notification intents.
+//
+// Notifications anchored to a local time of day ("localTime" extra) also keep their fire time as local time, taken in the
+// time zone they were scheduled in, so they can be moved to the same local time when the time zone changes.
+@Keep
+public class NotificationScheduleIndex
+{
+    static final String UNITY_NOTIFICATION_SCHEDULE_INDEX = "UNITY_NOTIFICATION_SCHEDULE_INDEX";
+
+    private static final String ENTRY_PREFIX = "n_";
+    private static final String INITIALIZED_KEY = "initialized";
+    private static final char SEPARATOR = '\u001f';
+
+    public static final int REPEAT_ANY = -1;
+    public static final int REPEAT_ONE_TIME = 0;
+    public static final int REPEAT_REPEATING = 1;
+
+    static final long NO_LOCAL_TIME = Long.MIN_VALUE;
+
+    static class Entry
+    {
+        final int id;
+        final long fireTime;
+        final long repeatInterval;
+        final String channel;
+        final String group;
+        final long localTime; // the fire time as local time in UTC millis, NO_LOCAL_TIME if not anchored
+
+        Entry(int id, long fireTime, long repeatInterval, String channel, String group)
+        {
+            this(id, fireTime, repeatInterval, channel, group, NO_LOCAL_TIME);
+        }
+
+        Entry(int id, long fireTime, long repeatInterval, String channel, String group, long localTime)
+        {
+            this.id = id;
+            this.fireTime = fireTime;
+            this.repeatInterval = repeatInterval;
+            this.channel = channel;
+            this.group = group;
+            this.localTime = localTime;
+        }
+
+        boolean isAnchoredToLocalTime()
+        {
+            return localTime != NO_LOCAL_TIME;
+        }
+
+        boolean isRepeating()
+        {
+            return repeatInterval > 0;
+        }
+
+        // The first time at or after 'time' at which the notification fires.
+        long nextFireTime(long time)
+        {
+            if (!isRepeating() || fireTime >= time)
+                return fireTime;
+
+            long intervals = (time - fireTime + repeatInterval - 1) / repeatInterval;
+            return fireTime + intervals * repeatInterval;
+        }
+
+        String encode()
+        {
+            String value = Long.toString(fireTime) + SEPARATOR + repeatInterval + SEPARATOR
+                    + (channel != null ? channel : "") + SEPARATOR + (group != null ? group : "");
+            return isAnchoredToLocalTime() ? value + SEPARATOR + localTime : value;
+        }
+
+        static Entry decode(int id, String value)
+        {
+            String[] parts = value.split(String.valueOf(SEPARATOR), -1);
+            if (parts.length != 4 && parts.length != 5)
+                return null;
+
+            try {
+                long localTime = parts.length == 5 ? Long.parseLong(parts[4]) : NO_LOCAL_TIME;
+                return new Entry(id, Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3], localTime);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    static final Comparator<Entry> FIRE_TIME_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            if (a.fireTime != b.fireTime)
+                return a.fireTime < b.fireTime ? -1 : 1;
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    // One-time notifications sorted by fire time, repeating ones are kept separately as their next fire time depends on the query time.
+    private static TreeSet<Entry> mOneTime;
+    private static HashMap<Integer, Entry> mRepeating;
+    private static HashMap<Integer, Entry> mEntries;
+
+    private static SharedPreferences getPrefs(Context context)
+    {
+        return context.getSharedPreferences(UNITY_NOTIFICATION_SCHEDULE_INDEX, Context.MODE_PRIVATE);
+    }
+
+    private static void load(Context context)
+    {
+        if (mEntries != null)
+            return;
+
+        mOneTime = new TreeSet<Entry>(FIRE_TIME_ORDER);
+        mRepeating = new HashMap<Integer, Entry>();
+        mEntries = new HashMap<Integer, Entry>();
+
+        SharedPreferences prefs = getPrefs(context);
+        if (!prefs.getBoolean(INITIALIZED_KEY, false))
+        {
+            rebuild(context, prefs);
+            return;
+        }
+
+        for (Map.Entry<String, ?> pref : prefs.getAll().entrySet())
+        {
+            String key = pref.getKey();
+            if (!key.startsWith(ENTRY_PREFIX) || !(pref.getValue() instanceof String))
+                continue;
+
+            try {
+                Entry entry = Entry.decode(Integer.parseInt(key.substring(ENTRY_PREFIX.length())), (String)pref.getValue());
+                if (entry != null)
+                    add(entry);
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+    }
+
+    // Builds the index from the stored notifications the first time it's used, notifications scheduled
+    // before the index existed are only found if their intents were saved (reschedule on restart enabled).
+    private static void rebuild(Context context, SharedPreferences prefs)
+    {
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.clear();
+
+        Set<String> ids = UnityNotificationManager.getScheduledNotificationIds(context);
+
+        for (String id : ids)
+        {
+            Intent intent = UnityNotificationManager.loadNotificationIntentData(id, context);
+            if (intent == null)
+                continue;
+
+            try {
+                Entry entry = fromIntent(intent);
+                add(entry);
+                editor.putString(ENTRY_PREFIX + entry.id, entry.encode());
+            } catch (RuntimeException ignored) {
+                ;
+            }
+        }
+
+        editor.putBoolean(INITIALIZED_KEY, true);
+        editor.apply();
+    }
+
+    private static Entry fromIntent(Intent intent)
+    {
+        long fireTime = intent.getLongExtra("fireTime", 0L);
+        return new Entry(
+                intent.getIntExtra("id", 0),
+                fireTime,
+                intent.getLongExtra("repeatInterval", 0L),
+                intent.getStringExtra("channelID"),
+                intent.getStringExtra("group"),
+                intent.getBooleanExtra("localTime", false) ? toLocalTime(fireTime, TimeZone.getDefault()) : NO_LOCAL_TIME);
+    }
+
+    static long toLocalTime(long time, TimeZone timeZone)
+    {
+        return time + timeZone.getOffset(time);
+    }
+
+    // The offset is looked up twice, so local times close to a daylight saving transition use the offset in effect then.
+    static long toAbsoluteTime(long localTime, TimeZone timeZone)
+    {
+        long guess = localTime - timeZone.getOffset(localTime);
+        return localTime - timeZone.getOffset(guess);
+    }
+
+    private static void add(Entry entry)
+    {
+        removeEntry(entry.id);
+
+        mEntries.put(entry.id, entry);
+        if (entry.isRepeating())
+            mRepeating.put(entry.id, entry);
+        else
+            mOneTime.add(entry);
+    }
+
+    private static boolean removeEntry(int id)
+    {
+        Entry entry = mEntries.remove(id);
+        if (entry == null)
+            return false;
+
+        if (entry.isRepeating())
+            mRepeating.remove(id);
+        else
+            mOneTime.remove(entry);
+        return true;
+    }
+
+    public static synchronized void put(Context context, Intent intent)
+    {
+        load(context);
+
+        Entry entry = fromIntent(intent);
+        add(entry);
+        getPrefs(context).edit().putString(ENTRY_PREFIX + entry.id, entry.encode()).apply();
+    }
+
+    public static synchronized void remove(Context context, int id)
+    {
+        load(context);
+
+        if (removeEntry(id))
+            getPrefs(context).edit().remove(ENTRY_PREFIX + id).apply();
+    }
+
+    public static synchronized void remove(Context context, Iterable<String> ids)
+    {
+        load(context);
+
+        SharedPreferences.Editor editor = null;
+        for (String id : ids)
+        {
+            try {
+                if (!removeEntry(Integer.parseInt(id)))
+                    continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            if (editor == null)
+                editor = getPrefs(context).edit();
+            editor.remove(ENTRY_PREFIX + id);
+        }
+
+        if (editor != null)
+            editor.apply();
+    }
+
+    static boolean matches(Entry entry, String channel, String group, int repeatFilter)
+    {
+        if (channel != null && channel.length() > 0 && !channel.equals(entry.channel))
+            return false;
+        if (group != null && group.length() > 0 && !group.equals(entry.group))
+            return false;
+        if (repeatFilter == REPEAT_ONE_TIME && entry.isRepeating())
+            return false;
+        if (repeatFilter == REPEAT_REPEATING && !entry.isRepeating())
+            return false;
+        return true;
+    }
+
+    static boolean isAfterCursor(long fireTime, int id, long cursorTime, int cursorId)
+    {
+        return fireTime > cursorTime || (fireTime == cursorTime && id > cursorId);
+    }
+
+    // Returns up to 'limit' notifications firing within [fromTime, toTime] in fire time order. Repeating notifications are reported
+    // at their next occurrence at or after fromTime. Pass the cursor of the previous result to continue where it stopped.
+    // Parked notifications aren't in the index, they're merged in from the NotificationSegments.
+    public static NotificationQueryResult query(Context context, String channel, String group, long fromTime, long toTime,
+                                                int repeatFilter, int limit, String cursor)
+    {
+        if (toTime <= 0)
+            toTime = Long.MAX_VALUE;
+        if (limit <= 0)
+            limit = Integer.MAX_VALUE;
+
+        long cursorTime = Long.MIN_VALUE;
+        int cursorId = Integer.MIN_VALUE;
+        if (cursor != null && cursor.length() > 0)
+        {
+            int separator = cursor.indexOf(':');
+            try {
+                cursorTime = Long.parseLong(cursor.substring(0, separator));
+                cursorId = Integer.parseInt(cursor.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid notification query cursor: " + cursor);
+            }
+        }
+
+        // Read before taking the index lock, the segments are locked first (see UnityNotificationManager.mScheduleLock).
+        // One more than the limit tells if there are more.
+        List<Entry> parked = Collections.<Entry>emptyList();
+        if (repeatFilter != REPEAT_REPEATING)
+            parked = NotificationSegments.query(context, channel, group, fromTime, toTime, cursorTime, cursorId,
+                                                limit == Integer.MAX_VALUE ? limit : limit + 1);
+
+        return query(context, channel, group, fromTime, toTime, repeatFilter, limit, cursorTime, cursorId, parked);
+    }
+
+    private static synchronized NotificationQueryResult query(Context context, String channel, String group, long fromTime, long toTime,
+                                                              int repeatFilter, int limit, long cursorTime, int cursorId, List<Entry> parked)
+    {
+        load(context);
+
+        // Repeating notifications are few, their next occurrences are sorted on every query, along with the parked
+        // notifications (at most one page of them).
+        List<Entry> listed = new ArrayList<Entry>(parked);
+        if (repeatFilter != REPEAT_ONE_TIME)
+        {
+            for (Entry entry : mRepeating.values())
+            {
+                if (!matches(entry, channel, group, repeatFilter))
+                    continue;
+
+                long next = entry.nextFireTime(fromTime);
+                if (next <= toTime && isAfterCursor(next, entry.id, cursorTime, cursorId))
+                    listed.add(new Entry(entry.id, next, entry.repeatInterval, entry.channel, entry.group));
+            }
+        }
+        Collections.sort(listed, FIRE_TIME_ORDER);
+
+        Iterator<Entry> oneTime = Collections.<Entry>emptyList().iterator();
+        if (repeatFilter != REPEAT_REPEATING)
+        {
+            long startTime = Math.max(fromTime, cursorTime);
+            oneTime = mOneTime.tailSet(new Entry(Integer.MIN_VALUE, startTime, 0, null, null), true).iterator();
+        }
+
+        List<Entry> page = new ArrayList<Entry>();
+        int listedIndex = 0;
+        Entry nextOneTime = nextMatching(oneTime, channel, group, toTime, cursorTime, cursorId);
+        boolean hasMore = false;
+
+        while (nextOneTime != null || listedIndex < listed.size())
+        {
+            if (page.size() == limit)
+            {
+                hasMore = true;
+                break;
+            }
+
+            Entry next;
+            if (nextOneTime == null)
+                next = listed.get(listedIndex++);
+            else if (listedIndex >= listed.size() || FIRE_TIME_ORDER.compare(nextOneTime, listed.get(listedIndex)) <= 0)
+            {
+                next = nextOneTime;
+                nextOneTime = nextMatching(oneTime, channel, group, toTime, cursorTime, cursorId);
+            }
+            else
+                next = listed.get(listedIndex++);
+
+            page.add(next);
+        }
+
+        NotificationQueryResult result = new NotificationQueryResult(page.size());
+        for (int i = 0; i < page.size(); i++)
+        {
+            Entry entry = page.get(i);
+            result.ids[i] = entry.id;
+            result.fireTimes[i] = entry.fireTime;
+        }
+
+        if (hasMore)
+        {
+            Entry last = page.get(page.size() - 1);
+            result.cursor = last.fireTime + ":" + last.id;
+        }
+        return result;
+    }
+
+    private static Entry nextMatching(Iterator<Entry> entries, String channel, String group, long toTime, long cursorTime, int cursorId)
+    {
+        while (entries.hasNext())
+        {
+            Entry entry = entries.next();
+            if (entry.fireTime > toTime)
+                return null;
+
+            if (isAfterCursor(entry.fireTime, entry.id, cursorTime, cursorId) && matches(entry, channel, group, REPEAT_ANY))
+                return entry;
+        }
+        return null;
+    }
+
+    // Returns the one-time notifications firing at or before 'time', in fire time order. Only the entries returned are visited.
+    static synchronized List<Entry> getOneTimeUntil(Context context, long time)
+    {
+        load(context);
+        return new ArrayList<Entry>(mOneTime.headSet(new Entry(Integer.MAX_VALUE, time, 0, null, null), true));
+    }
+
+    // Moves the notifications anchored to a local time to the same local time in the current time zone, in one pass over
+    // the index and one edit of it. Returns the entries that moved, with their new fire time.
+    static synchronized List<Entry> rebaseLocalTimes(Context context)
+    {
+        load(context);
+
+        TimeZone timeZone = TimeZone.getDefault();
+        List<Entry> moved = new ArrayList<Entry>();
+        for (Entry entry : mEntries.values())
+        {
+            if (!entry.isAnchoredToLocalTime())
+                continue;
+
+            long fireTime = toAbsoluteTime(entry.localTime, timeZone);
+            if (fireTime != entry.fireTime)
+                moved.add(new Entry(entry.id, fireTime, entry.repeatInterval, entry.channel, entry.group, entry.localTime));
+        }
+
+        if (moved.isEmpty())
+            return moved;
+
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        for (Entry entry : moved)
+        {
+            add(entry);
+            editor.putString(ENTRY_PREFIX + entry.id, entry.encode());
+        }
+        editor.apply();
+        return moved;
+    }
+
+    public static synchronized int size(Context context)
+    {
+        load(context);
+        return mEntries.size();
+    }
+}
@@ -0,0 +1,793 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+// Notifications scheduled far ahead (a season's worth of them) are parked in segments instead of the NotificationStore,
+// one file per day of fire time in unity_notifications/segments, named after the day (fire time / SEGMENT_LENGTH).
+// They have no alarm and no record until their segment comes within HORIZON, then the whole segment is taken out and
+// scheduled as usual. Startup, boot and the store only deal with the near-term notifications, and a segment whose day
+// passed without being taken (the device was off) is deleted as one file.
+//
+// A segment starts with it's index (id, fire time, local time, version, payload length, channel and group of every
+// entry), followed by the payloads, which are written with NotificationRecordCodec.writeStandalone. The version is the
+// notification hash, like the version of a stored record. The indexes of all segments are loaded the first time they're
+// needed in a process, they tell which segment an id is parked in, answer queries and tell sync what changed.
+//
+// Receivers taking due segments may run in another process, so the segments are read and written while holding a lock
+// on unity_notifications/segments.lock, besides the class lock for the threads of this process. The lock file holds a
+// generation which every change increments, the indexes are loaded again when another process changed the segments.
+//
+// Parked notifications aren't kept in the NotificationScheduleIndex, it's queries merge them in from the segment indexes
+// (see query), and the ones anchored to a local time are moved along when the time zone changes (see rebaseLocalTimes).
+class NotificationSegments
+{
+    static final String SEGMENT_DIRECTORY = "unity_notifications/segments";
+    static final long SEGMENT_LENGTH = 24 * 60 * 60 * 1000L;
+    static final long HORIZON = 2 * SEGMENT_LENGTH;
+
+    private static final int MAGIC = 0x554e5347; // "UNSG"
+    private static final int FORMAT_VERSION = 2;
+    // Segments of format version 1 only hold the id, fire time and payload length of every entry in their index, their
+    // entries have no version and count as changed for sync.
+    private static final int FORMAT_VERSION_ID_ONLY = 1;
+    private static final String SUFFIX = ".seg";
+    static final String LOCK_FILE = "unity_notifications/segments.lock";
+
+    // Magic, format version and count, then (from format version 2 on) the length of the index. An index entry is the id,
+    // fire time, local time, version, payload length, channel and group (UTF strings, empty for none).
+    private static final int HEADER_SIZE = 9;
+    private static final int INDEX_LENGTH_SIZE = 4;
+    private static final int MIN_INDEX_ENTRY_SIZE = 36;
+    private static final int ID_ONLY_INDEX_ENTRY_SIZE = 16;
+    private static final long NO_VERSION = 0L;
+
+    // Schedules the notifications of a segment that came within the horizon. Returns false if they couldn't be
+    // committed, the segment is kept and taken again later.
+    abstract static class DueHandler
+    {
+        abstract boolean schedule(List<Intent> due);
+    }
+
+    private static class Entry
+    {
+        final int id;
+        final long fireTime;
+        final long localTime;
+        final long version;
+        final String channel;
+        final String group;
+        byte[] payload; // null when only the index was read
+
+        Entry(int id, long fireTime, long localTime, long version, String channel, String group, byte[] payload)
+        {
+            this.id = id;
+            this.fireTime = fireTime;
+            this.localTime = localTime;
+            this.version = version;
+            this.channel = channel;
+            this.group = group;
+            this.payload = payload;
+        }
+
+        NotificationScheduleIndex.Entry toIndexEntry()
+        {
+            return new NotificationScheduleIndex.Entry(id, fireTime, 0L, channel, group, localTime);
+        }
+    }
+
+    // The index of every segment in fire time order, and the index entry of every parked id. Both are null until loaded.
+    private static TreeMap<Long, List<NotificationScheduleIndex.Entry>> mIndexes;
+    private static HashMap<Integer, Entry> mEntryOfId;
+    private static FileChannel mLockChannel;
+    private static long mGeneration = -1L;
+
+    static long getSegment(long fireTime)
+    {
+        return fireTime / SEGMENT_LENGTH;
+    }
+
+    // One-time notifications whose segment starts after the horizon are parked.
+    static boolean isParkable(Intent intent, long now)
+    {
+        if (intent.getLongExtra("repeatInterval", 0L) > 0)
+            return false;
+
+        return getSegment(intent.getLongExtra("fireTime", 0L)) * SEGMENT_LENGTH >= now + HORIZON;
+    }
+
+    private static File getDirectory(Context context)
+    {
+        return new File(context.getFilesDir(), SEGMENT_DIRECTORY);
+    }
+
+    private static File getFile(Context context, long segment)
+    {
+        return new File(getDirectory(context), segment + SUFFIX);
+    }
+
+    // Returns the segments that exist, by listing the directory only.
+    private static List<Long> listSegments(Context context)
+    {
+        List<Long> segments = new ArrayList<Long>();
+        String[] names = getDirectory(context).list();
+        if (names == null)
+            return segments;
+
+        for (String name : names)
+        {
+            if (!name.endsWith(SUFFIX))
+                continue;
+            try {
+                segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+        return segments;
+    }
+
+    // The count, the index length and the payload lengths are checked against the size of the file, so a damaged segment
+    // fails to be read instead of making the reader allocate whatever it claims.
+    private static List<Entry> read(File file, boolean withPayloads) throws IOException
+    {
+        long remaining = file.length() - HEADER_SIZE;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version < FORMAT_VERSION_ID_ONLY || version > FORMAT_VERSION)
+                throw new IOException("Not a notification segment: " + file.getName());
+
+            int count = in.readInt();
+            long indexLength = (long)count * ID_ONLY_INDEX_ENTRY_SIZE;
+            if (version > FORMAT_VERSION_ID_ONLY)
+            {
+                remaining -= INDEX_LENGTH_SIZE;
+                indexLength = in.readInt();
+                if (indexLength < (long)count * MIN_INDEX_ENTRY_SIZE)
+                    count = -1;
+            }
+            if (count < 0 || indexLength > remaining)
+                throw new IOException("Malformed notification segment " + file.getName() + ", entry count " + count);
+            remaining -= indexLength;
+
+            List<Entry> entries = new ArrayList<Entry>(count);
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                int id = in.readInt();
+                long fireTime = in.readLong();
+                long localTime = NotificationScheduleIndex.NO_LOCAL_TIME;
+                long entryVersion = NO_VERSION;
+                String channel = null;
+                String group = null;
+                if (version > FORMAT_VERSION_ID_ONLY)
+                {
+                    localTime = in.readLong();
+                    entryVersion = in.readLong();
+                    lengths[i] = in.readInt();
+                    channel = readString(in);
+                    group = readString(in);
+                }
+                else
+                    lengths[i] = in.readInt();
+
+                if (lengths[i] < 0 || lengths[i] > remaining)
+                    throw new IOException("Malformed notification segment " + file.getName() + ", payload length " + lengths[i]);
+                remaining -= lengths[i];
+                entries.add(new Entry(id, fireTime, localTime, entryVersion, channel, group, null));
+            }
+
+            if (withPayloads)
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    byte[] payload = new byte[lengths[i]];
+                    in.readFully(payload);
+                    entries.get(i).payload = payload;
+                }
+            }
+            return entries;
+        } finally {
+            NotificationPayloadStore.closeQuietly(in);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        String value = in.readUTF();
+        return value.length() > 0 ? value : null;
+    }
+
+    // Replaces the segment, written to a temporary file and synced first so a segment is never half written.
+    private static void write(File file, Collection<Entry> entries) throws IOException
+    {
+        if (entries.isEmpty())
+        {
+            delete(file);
+            return;
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream(entries.size() * 48);
+        DataOutputStream indexOut = new DataOutputStream(index);
+        for (Entry entry : entries)
+        {
+            indexOut.writeInt(entry.id);
+            indexOut.writeLong(entry.fireTime);
+            indexOut.writeLong(entry.localTime);
+            indexOut.writeLong(entry.version);
+            indexOut.writeInt(entry.payload.length);
+            indexOut.writeUTF(entry.channel != null ? entry.channel : "");
+            indexOut.writeUTF(entry.group != null ? entry.group : "");
+        }
+
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            out.writeInt(index.size());
+            index.writeTo(out);
+            for (Entry entry : entries)
+                out.write(entry.payload);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            NotificationPayloadStore.closeQuietly(out);
+        }
+
+        if (!temporary.renameTo(file))
+            throw new IOException("Failed to replace notification segment " + file.getName());
+        changed();
+    }
+
+    private static void delete(File file)
+    {
+        if (file.delete())
+            changed();
+    }
+
+    // Locks the segments against other processes. The indexes are dropped if another process changed the segments since
+    // they were loaded, or if the segments can't be locked and it can't be told. Returns null if locking failed.
+    private static FileLock lock(Context context)
+    {
+        try {
+            if (mLockChannel == null)
+            {
+                File file = new File(context.getFilesDir(), LOCK_FILE);
+                file.getParentFile().mkdirs();
+                mLockChannel = new RandomAccessFile(file, "rw").getChannel();
+            }
+
+            FileLock lock = mLockChannel.lock();
+            ByteBuffer generation = ByteBuffer.allocate(8);
+            long current = mLockChannel.read(generation, 0) == 8 ? generation.getLong(0) : 0L;
+            if (current != mGeneration)
+            {
+                dropIndexes();
+                mGeneration = current;
+            }
+            return lock;
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to lock notification segments: " + e.getMessage());
+            dropIndexes();
+            return null;
+        }
+    }
+
+    private static void unlock(FileLock lock)
+    {
+        if (lock == null)
+        {
+            dropIndexes();
+            return;
+        }
+
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+            ;
+        }
+    }
+
+    // Called with the segments locked after a segment file was written or deleted.
+    private static void changed()
+    {
+        if (mLockChannel == null)
+            return;
+
+        ByteBuffer generation = ByteBuffer.allocate(8);
+        generation.putLong(0, mGeneration + 1);
+        try {
+            mLockChannel.write(generation, 0);
+            mGeneration++;
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to update notification segments generation: " + e.getMessage());
+        }
+    }
+
+    private static void dropIndexes()
+    {
+        mIndexes = null;
+        mEntryOfId = null;
+    }
+
+    private static void loadIndexes(Context context)
+    {
+        if (mIndexes != null)
+            return;
+
+        mIndexes = new TreeMap<Long, List<NotificationScheduleIndex.Entry>>();
+        mEntryOfId = new HashMap<Integer, Entry>();
+        for (long segment : listSegments(context))
+        {
+            try {
+                setIndex(segment, read(getFile(context, segment), false));
+            } catch (IOException e) {
+                Log.w("UnityNotifications", "Failed to read notification segment: " + e.getMessage());
+            }
+        }
+    }
+
+    // Replaces the loaded index of the segment with the entries it was written with, an empty segment was deleted.
+    private static void setIndex(long segment, Collection<Entry> entries)
+    {
+        List<NotificationScheduleIndex.Entry> previous = mIndexes.remove(segment);
+        if (previous != null)
+        {
+            for (NotificationScheduleIndex.Entry entry : previous)
+            {
+                Entry parked = mEntryOfId.get(entry.id);
+                if (parked != null && getSegment(parked.fireTime) == segment)
+                    mEntryOfId.remove(entry.id);
+            }
+        }
+
+        if (entries.isEmpty())
+            return;
+
+        List<NotificationScheduleIndex.Entry> index = new ArrayList<NotificationScheduleIndex.Entry>(entries.size());
+        for (Entry entry : entries)
+        {
+            index.add(entry.toIndexEntry());
+            mEntryOfId.put(entry.id, new Entry(entry.id, entry.fireTime, entry.localTime, entry.version, entry.channel, entry.group, null));
+        }
+        Collections.sort(index, NotificationScheduleIndex.FIRE_TIME_ORDER);
+        mIndexes.put(segment, index);
+    }
+
+    // Reads a whole segment keyed by id, a segment that can't be read is treated as empty.
+    private static LinkedHashMap<Integer, Entry> readSegment(Context context, long segment)
+    {
+        LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+        File file = getFile(context, segment);
+        if (!file.exists())
+            return entries;
+
+        try {
+            for (Entry entry : read(file, true))
+                entries.put(entry.id, entry);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to read notification segment: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    private static Intent toIntent(Context context, Entry entry)
+    {
+        try {
+            Map<String, Object> fields = NotificationRecordCodec.readStandalone(
+                new NotificationRecordCodec.Reader(entry.payload, 0, entry.payload.length));
+            return UnityNotificationManager.buildNotificationIntent(fields, context);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to read parked notification " + entry.id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The local time is taken in the current time zone, like NotificationScheduleIndex does for scheduled notifications.
+    private static Entry toEntry(Intent intent)
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        NotificationRecordCodec.writeStandalone(payload, UnityNotificationManager.getNotificationFields(intent));
+
+        long fireTime = intent.getLongExtra("fireTime", 0L);
+        long localTime = intent.getBooleanExtra("localTime", false)
+                ? NotificationScheduleIndex.toLocalTime(fireTime, TimeZone.getDefault()) : NotificationScheduleIndex.NO_LOCAL_TIME;
+        long version = UnityNotificationManager.computeNotificationHash(intent.getExtras());
+        return new Entry(intent.getIntExtra("id", 0), fireTime, localTime, version, intent.getStringExtra("channelID"),
+                intent.getStringExtra("group"), payload.toByteArray());
+    }
+
+    // Parks the notifications, every segment touched is written once. A notification parked before under the same id is
+    // replaced, also if it moved to another segment. Returns the number of parked notifications.
+    static synchronized int park(Context context, List<Intent> intents)
+    {
+        FileLock lock = lock(context);
+        try {
+            return parkEntries(context, intents);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private static int parkEntries(Context context, List<Intent> intents)
+    {
+        loadIndexes(context);
+
+        HashMap<Long, List<Intent>> added = new HashMap<Long, List<Intent>>();
+        HashMap<Long, Set<Integer>> removed = new HashMap<Long, Set<Integer>>();
+        for (Intent intent : intents)
+        {
+            int id = intent.getIntExtra("id", 0);
+            long segment = getSegment(intent.getLongExtra("fireTime", 0L));
+
+            Entry parked = mEntryOfId.get(id);
+            Long previous = parked != null ? getSegment(parked.fireTime) : null;
+            if (previous != null && previous != segment)
+            {
+                if (!removed.containsKey(previous))
+                    removed.put(previous, new HashSet<Integer>());
+                removed.get(previous).add(id);
+            }
+
+            if (!added.containsKey(segment))
+                added.put(segment, new ArrayList<Intent>());
+            added.get(segment).add(intent);
+        }
+
+        Set<Long> touched = new HashSet<Long>(added.keySet());
+        touched.addAll(removed.keySet());
+
+        int parked = 0;
+        for (long segment : touched)
+        {
+            LinkedHashMap<Integer, Entry> entries = readSegment(context, segment);
+            if (removed.containsKey(segment))
+            {
+                for (int id : removed.get(segment))
+                    entries.remove(id);
+            }
+
+            List<Intent> segmentIntents = added.containsKey(segment) ? added.get(segment) : new ArrayList<Intent>();
+            for (Intent intent : segmentIntents)
+            {
+                Entry entry = toEntry(intent);
+                entries.remove(entry.id); // keeps the entries in the order they were parked
+                entries.put(entry.id, entry);
+            }
+
+            try {
+                write(getFile(context, segment), entries.values());
+            } catch (IOException e) {
+                Log.w("UnityNotifications", "Failed to write notification segment: " + e.getMessage());
+                dropIndexes(); // read again from the files
+                loadIndexes(context);
+                continue;
+            }
+
+            setIndex(segment, entries.values());
+            parked += segmentIntents.size();
+        }
+        return parked;
+    }
+
+    static synchronized boolean remove(Context context, int id)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+
+            Entry parked = mEntryOfId.get(id);
+            if (parked == null)
+                return false;
+
+            long segment = getSegment(parked.fireTime);
+            LinkedHashMap<Integer, Entry> entries = readSegment(context, segment);
+            if (entries.remove(id) == null)
+                return false;
+
+            try {
+                write(getFile(context, segment), entries.values());
+            } catch (IOException e) {
+                Log.w("UnityNotifications", "Failed to write notification segment: " + e.getMessage());
+                return false;
+            }
+            setIndex(segment, entries.values());
+            return true;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    static synchronized Set<Integer> getIds(Context context)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+            return new HashSet<Integer>(mEntryOfId.keySet());
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Returns the intents of all parked notifications, every segment is read in full.
+    static synchronized List<Intent> getIntents(Context context)
+    {
+        FileLock lock = lock(context);
+        try {
+            List<Intent> intents = new ArrayList<Intent>();
+            for (long segment : listSegments(context))
+            {
+                for (Entry entry : readSegment(context, segment).values())
+                {
+                    Intent intent = toIntent(context, entry);
+                    if (intent != null)
+                        intents.add(intent);
+                }
+            }
+            return intents;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Returns up to 'limit' parked notifications of the channel and group firing within [fromTime, toTime] after the
+    // cursor, in fire time order. Only the indexes of the segments within the range are visited.
+    static synchronized List<NotificationScheduleIndex.Entry> query(Context context, String channel, String group, long fromTime, long toTime,
+                                                                    long cursorTime, int cursorId, int limit)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+
+            List<NotificationScheduleIndex.Entry> result = new ArrayList<NotificationScheduleIndex.Entry>();
+            long startSegment = getSegment(Math.max(Math.max(fromTime, cursorTime), 0L));
+            for (List<NotificationScheduleIndex.Entry> index : mIndexes.tailMap(startSegment, true).values())
+            {
+                for (NotificationScheduleIndex.Entry entry : index)
+                {
+                    if (entry.fireTime > toTime || result.size() == limit)
+                        return result;
+
+                    if (entry.fireTime >= fromTime && NotificationScheduleIndex.isAfterCursor(entry.fireTime, entry.id, cursorTime, cursorId)
+                            && NotificationScheduleIndex.matches(entry, channel, group, NotificationScheduleIndex.REPEAT_ANY))
+                        result.add(entry);
+                }
+            }
+            return result;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Moves the parked notifications anchored to a local time to the same local time in the current time zone, into
+    // another segment if their day changed. Only the segments holding notifications that moved are read. Returns the
+    // number of moved notifications.
+    static synchronized int rebaseLocalTimes(Context context)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+
+            TimeZone timeZone = TimeZone.getDefault();
+            Map<Integer, Long> fireTimes = new HashMap<Integer, Long>();
+            Set<Long> segments = new HashSet<Long>();
+            for (Map.Entry<Long, List<NotificationScheduleIndex.Entry>> index : mIndexes.entrySet())
+            {
+                for (NotificationScheduleIndex.Entry entry : index.getValue())
+                {
+                    if (!entry.isAnchoredToLocalTime())
+                        continue;
+
+                    long fireTime = NotificationScheduleIndex.toAbsoluteTime(entry.localTime, timeZone);
+                    if (fireTime == entry.fireTime)
+                        continue;
+
+                    fireTimes.put(entry.id, fireTime);
+                    segments.add(index.getKey());
+                }
+            }
+
+            List<Intent> moved = new ArrayList<Intent>();
+            for (long segment : segments)
+            {
+                for (Entry entry : readSegment(context, segment).values())
+                {
+                    Long fireTime = fireTimes.get(entry.id);
+                    Intent intent = fireTime != null ? toIntent(context, entry) : null;
+                    if (intent == null)
+                        continue;
+
+                    // The shown timestamp moves along unless it's a custom one.
+                    if (intent.getLongExtra("timestamp", -1L) == entry.fireTime)
+                        intent.putExtra("timestamp", (long)fireTime);
+                    intent.putExtra("fireTime", (long)fireTime);
+                    moved.add(intent);
+                }
+            }
+
+            // The new local times are taken in the current time zone, which gives back the same local times.
+            return moved.isEmpty() ? 0 : parkEntries(context, moved);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Makes the parked notifications match the desired ones, which all have to be parkable. Parked notifications which
+    // aren't desired are removed, desired ones are parked unless they're parked already with the same version. Segments
+    // without changes aren't touched, segments losing all their entries are deleted without being read. Returns the
+    // version of every notification that was parked before (id to version).
+    static synchronized Map<Integer, Long> sync(Context context, List<Intent> desired)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+
+            Map<Integer, Long> previous = new HashMap<Integer, Long>();
+            for (Entry entry : mEntryOfId.values())
+                previous.put(entry.id, entry.version);
+
+            // Unchanged entries stay where they are, the version covers the fire time and so the segment.
+            // The last one wins if an id is desired more than once.
+            Set<Integer> kept = new HashSet<Integer>();
+            LinkedHashMap<Integer, Entry> changedEntries = new LinkedHashMap<Integer, Entry>();
+            for (Intent intent : desired)
+            {
+                int id = intent.getIntExtra("id", 0);
+                Long version = previous.get(id);
+                if (version != null && version != NO_VERSION && version == UnityNotificationManager.computeNotificationHash(intent.getExtras()))
+                {
+                    kept.add(id);
+                    changedEntries.remove(id);
+                    continue;
+                }
+
+                kept.remove(id);
+                changedEntries.remove(id);
+                changedEntries.put(id, toEntry(intent));
+            }
+
+            HashMap<Long, List<Entry>> changed = new HashMap<Long, List<Entry>>();
+            for (Entry entry : changedEntries.values())
+            {
+                long segment = getSegment(entry.fireTime);
+                if (!changed.containsKey(segment))
+                    changed.put(segment, new ArrayList<Entry>());
+                changed.get(segment).add(entry);
+            }
+
+            // Segments holding parked notifications which aren't kept, and segments getting changed ones. The others are
+            // left as they are.
+            Set<Long> touched = new HashSet<Long>(changed.keySet());
+            Set<Long> keptSegments = new HashSet<Long>();
+            for (Entry entry : mEntryOfId.values())
+            {
+                if (kept.contains(entry.id))
+                    keptSegments.add(getSegment(entry.fireTime));
+                else
+                    touched.add(getSegment(entry.fireTime));
+            }
+
+            for (long segment : touched)
+            {
+                LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+                if (keptSegments.contains(segment))
+                {
+                    for (Entry entry : readSegment(context, segment).values())
+                    {
+                        if (kept.contains(entry.id))
+                            entries.put(entry.id, entry);
+                    }
+                }
+                if (changed.containsKey(segment))
+                {
+                    for (Entry entry : changed.get(segment))
+                        entries.put(entry.id, entry);
+                }
+
+                try {
+                    write(getFile(context, segment), entries.values());
+                } catch (IOException e) {
+                    Log.w("UnityNotifications", "Failed to write notification segment: " + e.getMessage());
+                    dropIndexes(); // read again from the files
+                    loadIndexes(context);
+                    continue;
+                }
+                setIndex(segment, entries.values());
+            }
+
+            return previous;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Removes all parked notifications, returns their ids.
+    static synchronized Set<Integer> clear(Context context)
+    {
+        FileLock lock = lock(context);
+        try {
+            loadIndexes(context);
+            Set<Integer> ids = new HashSet<Integer>(mEntryOfId.keySet());
+
+            for (long segment : listSegments(context))
+                delete(getFile(context, segment));
+            mIndexes = new TreeMap<Long, List<NotificationScheduleIndex.Entry>>();
+            mEntryOfId = new HashMap<Integer, Entry>();
+            return ids;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    // Takes the segments which came within the horizon out of storage, their notifications which are still due are given
+    // to the handler one segment at a time. A segment is only deleted once the handler committed it's notifications, if
+    // the process dies before that the segment is taken again (scheduling the same notification twice replaces it).
+    // Segments whose day passed completely are deleted without being read. Returns the number of scheduled notifications.
+    static synchronized int takeDue(Context context, long now, DueHandler handler)
+    {
+        FileLock lock = lock(context);
+        try {
+            int scheduled = 0;
+
+            for (long segment : listSegments(context))
+            {
+                if (segment * SEGMENT_LENGTH >= now + HORIZON)
+                    continue;
+
+                List<Intent> due = new ArrayList<Intent>();
+                if ((segment + 1) * SEGMENT_LENGTH > now)
+                {
+                    for (Entry entry : readSegment(context, segment).values())
+                    {
+                        Intent intent = entry.fireTime > now ? toIntent(context, entry) : null;
+                        if (intent != null)
+                            due.add(intent);
+                    }
+                }
+
+                if (!due.isEmpty() && !handler.schedule(due))
+                    break;
+
+                delete(getFile(context, segment));
+                scheduled += due.size();
+                if (mIndexes != null)
+                    setIndex(segment, Collections.<Entry>emptyList());
+            }
+
+            return scheduled;
+        } finally {
+            unlock(lock);
+        }
+    }
+}
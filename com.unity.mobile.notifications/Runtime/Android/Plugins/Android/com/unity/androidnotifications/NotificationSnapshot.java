@@ -0,0 +1,203 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versioned binary snapshot of the registered notification channels and the scheduled notifications, used to back them
+// up or to move them to another device. Unlike the stored records it doesn't depend on Parcel or on the string
+// dictionary of the NotificationStore, every entry carries its own field names, types and strings
+// (see NotificationRecordCodec.writeStandalone).
+//
+// The layout is:
+//   magic, format version, creation time
+//   entries: tag, payload length, payload
+//   TAG_END
+//
+// Readers skip entries with tags they don't know, so new kinds of entries can be added without changing the format
+// version, which only changes if older readers can't read a snapshot at all. Entries are written and read one at a time,
+// the snapshot file is never held in memory as a whole.
+class NotificationSnapshot
+{
+    private static final int MAGIC = 0x554e534e; // "UNSN"
+    private static final int FORMAT_VERSION = 1;
+
+    // Bounds the memory a damaged or foreign file can make the reader allocate, far above any real entry. Payloads are
+    // inlined, so that's mostly the size of the largest payload.
+    static final int MAX_ENTRY_SIZE = 4 * 1024 * 1024;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_CHANNEL = 1;
+    private static final int TAG_NOTIFICATION = 2;
+
+    static class Contents
+    {
+        final List<NotificationChannelWrapper> channels = new ArrayList<NotificationChannelWrapper>();
+        final List<Intent> notifications = new ArrayList<Intent>();
+    }
+
+    // Writes the channels and all scheduled and parked notifications, returns the number of notifications written.
+    static int write(Context context, List<NotificationChannelWrapper> channels, OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        for (NotificationChannelWrapper channel : channels)
+            writeEntry(out, TAG_CHANNEL, getChannelFields(channel));
+
+        int count = 0;
+        for (String id : UnityNotificationManager.getScheduledNotificationIds(context))
+        {
+            Intent intent = UnityNotificationManager.loadNotificationIntentData(id, context);
+            if (intent == null)
+                continue;
+
+            writeNotification(context, out, intent);
+            count++;
+        }
+
+        for (Intent intent : NotificationSegments.getIntents(context))
+        {
+            writeNotification(context, out, intent);
+            count++;
+        }
+
+        out.writeByte(TAG_END);
+        out.flush();
+        return count;
+    }
+
+    static Contents read(Context context, InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a notification snapshot");
+        int formatVersion = in.readUnsignedByte();
+        if (formatVersion > FORMAT_VERSION)
+            throw new IOException("Unsupported notification snapshot version " + formatVersion);
+        in.readLong(); // creation time
+
+        Contents contents = new Contents();
+        while (true)
+        {
+            int tag = in.readUnsignedByte();
+            if (tag == TAG_END)
+                break;
+
+            int length = in.readInt();
+            if (length < 0 || length > MAX_ENTRY_SIZE)
+                throw new IOException("Malformed notification snapshot, entry length " + length);
+
+            if (tag != TAG_CHANNEL && tag != TAG_NOTIFICATION)
+            {
+                skipFully(in, length);
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            Map<String, Object> fields = NotificationRecordCodec.readStandalone(new NotificationRecordCodec.Reader(payload, 0, length));
+
+            if (tag == TAG_CHANNEL)
+                contents.channels.add(getChannel(fields));
+            else
+                contents.notifications.add(UnityNotificationManager.buildNotificationIntent(fields, context));
+        }
+
+        return contents;
+    }
+
+    private static void writeNotification(Context context, DataOutputStream out, Intent intent) throws IOException
+    {
+        // Payloads stored out of line are written inline, payload files aren't part of the snapshot.
+        if (intent.hasExtra("dataRef"))
+        {
+            String data = NotificationPayloadStore.loadPayload(context, intent);
+            intent.removeExtra("dataRef");
+            if (data != null)
+                intent.putExtra("data", data);
+        }
+
+        writeEntry(out, TAG_NOTIFICATION, UnityNotificationManager.getNotificationFields(intent));
+    }
+
+    private static void writeEntry(DataOutputStream out, int tag, Map<String, Object> fields) throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        NotificationRecordCodec.writeStandalone(payload, fields);
+        // A snapshot that can't be read again isn't written.
+        if (payload.size() > MAX_ENTRY_SIZE)
+            throw new IOException("Notification snapshot entry of " + payload.size() + " bytes is too large");
+
+        out.writeByte(tag);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException
+    {
+        while (length > 0)
+        {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0)
+                throw new EOFException();
+            length -= skipped;
+        }
+    }
+
+    private static Map<String, Object> getChannelFields(NotificationChannelWrapper channel)
+    {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("id", channel.id);
+        fields.put("name", channel.name);
+        fields.put("importance", channel.importance);
+        fields.put("description", channel.description);
+        fields.put("enableLights", channel.enableLights);
+        fields.put("enableVibration", channel.enableVibration);
+        fields.put("canBypassDnd", channel.canBypassDnd);
+        fields.put("canShowBadge", channel.canShowBadge);
+        fields.put("vibrationPattern", channel.vibrationPattern);
+        fields.put("lockscreenVisibility", channel.lockscreenVisibility);
+        return fields;
+    }
+
+    private static NotificationChannelWrapper getChannel(Map<String, Object> fields) throws IOException
+    {
+        NotificationChannelWrapper channel = new NotificationChannelWrapper();
+        channel.id = fields.get("id") instanceof String ? (String)fields.get("id") : null;
+        if (channel.id == null)
+            throw new IOException("Notification snapshot channel without an id");
+
+        channel.name = fields.get("name") instanceof String ? (String)fields.get("name") : channel.id;
+        channel.importance = getInt(fields, "importance");
+        channel.description = fields.get("description") instanceof String ? (String)fields.get("description") : null;
+        channel.enableLights = Boolean.TRUE.equals(fields.get("enableLights"));
+        channel.enableVibration = Boolean.TRUE.equals(fields.get("enableVibration"));
+        channel.canBypassDnd = Boolean.TRUE.equals(fields.get("canBypassDnd"));
+        channel.canShowBadge = Boolean.TRUE.equals(fields.get("canShowBadge"));
+        channel.vibrationPattern = fields.get("vibrationPattern") instanceof long[] ? (long[])fields.get("vibrationPattern") : null;
+        channel.lockscreenVisibility = getInt(fields, "lockscreenVisibility");
+        return channel;
+    }
+
+    private static int getInt(Map<String, Object> fields, String key)
+    {
+        Object value = fields.get(key);
+        return value instanceof Integer ? (Integer)value : 0;
+    }
+}
@@ -0,0 +1,1058 @@
+package com.unity.androidnotifications;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// All stored notification records and the set of scheduled notification ids in a single file
+// (unity_notifications/records.bin), replacing the u_notification_data_<id> preference files and the
+// UNITY_STORED_NOTIFICATION_IDS preferences. Records are encoded with NotificationRecordCodec against one shared
+// string dictionary, so values repeated across notifications (channel, icons, group, titles) are stored only once.
+//
+// The file layout is:
+//   magic, format version
+//   dictionary: count, then (index, string) pairs
+//   records: count, then (id, version, plan bytes, field bytes)
+//   scheduled ids: count, then ids (format version 2 and later)
+//
+// Changes are applied in memory and appended to a write-ahead journal (unity_notifications/records.journal). Changes
+// made within GROUP_COMMIT_WINDOW are appended together as one checksummed batch with a single fsync, the calls of the
+// manager made by Unity return without waiting for it. Receivers flush before returning, the process may be killed
+// right after. Changes that fail to be written stay pending and are written again after RETRY_DELAY, or with the next
+// flush. Loading the store reads the file and replays the complete batches of the journal, a batch torn by a crash is
+// dropped. Once the journal grows past CHECKPOINT_SIZE the whole file is written instead (replaced atomically, so a
+// crash never leaves a partially written store) and the journal is deleted. Journal operations set the state of an id
+// rather than modifying it, so replaying a journal that is already part of the file (crash between the two steps) has
+// no effect.
+//
+// The store is shared by all processes of the app (alarms and boot broadcasts may be received in a different process
+// than the one running Unity). Writers hold a lock on unity_notifications/records.idx while writing, changes another
+// process committed in the meantime are loaded first and the pending changes of this process are applied on top of
+// them. The index file is memory mapped and holds a generation, which every commit increments, followed by the sorted
+// ids of the stored and scheduled notifications. Readers compare the generation to the one they loaded to tell whether
+// their copy is current, scheduled ids and record versions are read from the index without loading the whole store.
+// The generation is odd while a commit is in progress, readers retry or fall back to their loaded copy.
+//
+// A store that can't be read (an I/O error, not a damaged file) keeps it's loaded copy, empty when it's opened, and is
+// read again on the next call. Nothing is committed until it was read, a commit would overwrite the file or truncate
+// the journal. A damaged file is dropped, a copy of it is kept as records.bin.damaged.
+//
+// Only the records and the scheduled ids are safe to use from several processes. The NotificationScheduleIndex,
+// NotificationCollapseKeyIndex, NotificationAlarmPlanner, NotificationSuppressionRules and UNITY_DELIVERED_NOTIFICATIONS
+// are kept in SharedPreferences, which every process caches, changes made by a receiver running in another process
+// are only seen by the process running Unity once it's restarted (and may be overwritten by it before).
+class NotificationStore
+{
+    static final String STORE_DIRECTORY = "unity_notifications";
+    static final String STORE_FILE = "records.bin";
+    static final String INDEX_FILE = "records.idx";
+    static final String JOURNAL_FILE = "records.journal";
+    static final String DAMAGED_SUFFIX = ".damaged";
+
+    static final long GROUP_COMMIT_WINDOW = 20L;
+    static final long RETRY_DELAY = 1000L;
+    static final int CHECKPOINT_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x554e5253; // "UNRS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_WITHOUT_SCHEDULED_IDS = 1;
+
+    // Index header: magic, capacity, generation, count. Entry: id, flags, version.
+    private static final int INDEX_MAGIC = 0x554e5249; // "UNRI"
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_GENERATION = 8;
+    private static final int OFFSET_COUNT = 16;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int OFFSET_ENTRY_FLAGS = 4;
+    private static final int OFFSET_ENTRY_VERSION = 8;
+    private static final int INDEX_INITIAL_CAPACITY = 64;
+    private static final int INDEX_INVALID = -1;
+    private static final int INDEX_READ_ATTEMPTS = 8;
+
+    private static final int FLAG_SCHEDULED = 1;
+    private static final int FLAG_RECORD = 2;
+
+    // Journal batch: payload length, CRC32 of the payload, then the operations.
+    private static final int JOURNAL_BATCH_HEADER_SIZE = 8;
+    private static final int OPERATION_PUT = 1;
+    private static final int OPERATION_REMOVE = 2;
+    private static final int OPERATION_SCHEDULED = 3;
+
+    static class Record
+    {
+        final long version;
+        final byte[] plan;
+        final byte[] fields;
+        final int[] references;
+
+        Record(long version, byte[] plan, byte[] fields, int[] references)
+        {
+            this.version = version;
+            this.plan = plan;
+            this.fields = fields;
+            this.references = references;
+        }
+    }
+
+    // A change of the store, written to the journal. Changes made in this process which aren't written yet are applied
+    // again if another process committed first.
+    private abstract class Operation
+    {
+        abstract void apply();
+        abstract void write(ByteArrayOutputStream out);
+    }
+
+    // Reads entries from the index, called again if a commit happened while reading.
+    private abstract static class IndexReader
+    {
+        abstract void read(MappedByteBuffer index, int count);
+    }
+
+    private static NotificationStore mInstance;
+
+    private final File mFile;
+    private final File mIndexFile;
+    private final File mJournalFile;
+    private final NotificationStringDictionary mDictionary = new NotificationStringDictionary();
+    private final HashMap<Integer, Record> mRecords = new HashMap<Integer, Record>();
+    private final HashSet<Integer> mScheduled = new HashSet<Integer>();
+    private final ArrayList<Operation> mPending = new ArrayList<Operation>();
+    private final boolean mCreated;
+    private boolean mScheduledSetMissing = false;
+    private boolean mReadFailed = false;
+
+    private final ScheduledExecutorService mWriter;
+    private final Object mFlushLock = new Object();
+    private boolean mWritePending = false;
+    private long mJournalSize = 0L;
+
+    private FileChannel mIndexChannel;
+    private MappedByteBuffer mIndex;
+    private int mIndexCapacity = 0;
+    private long mGeneration = 0L;
+
+    static synchronized NotificationStore getInstance(File filesDir)
+    {
+        if (mInstance == null)
+        {
+            File directory = new File(filesDir, STORE_DIRECTORY);
+            mInstance = new NotificationStore(new File(directory, STORE_FILE), new File(directory, INDEX_FILE), new File(directory, JOURNAL_FILE));
+        }
+        return mInstance;
+    }
+
+    // Flushes the store if it was opened in this process, returns false if pending changes couldn't be written.
+    static boolean flushInstance()
+    {
+        NotificationStore store;
+        synchronized (NotificationStore.class)
+        {
+            store = mInstance;
+        }
+        return store == null || store.flush();
+    }
+
+    NotificationStore(File file, File indexFile, File journalFile)
+    {
+        mFile = file;
+        mIndexFile = indexFile;
+        mJournalFile = journalFile;
+        mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "UnityNotificationStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        openIndex();
+
+        // The generation is read before the file, so a commit made while reading it causes a reload later.
+        if (mIndex != null)
+            mGeneration = mIndex.getLong(OFFSET_GENERATION);
+
+        mCreated = !mFile.exists() && !mJournalFile.exists();
+        if (mCreated)
+            mScheduledSetMissing = true;
+        else
+            mReadFailed = !read();
+    }
+
+    // True if there was no store file yet, records from older versions of the plugin should be migrated into it.
+    boolean isCreated()
+    {
+        return mCreated;
+    }
+
+    // True if the store was written by a version of the plugin which kept the scheduled ids in preferences.
+    boolean isScheduledSetMissing()
+    {
+        return mScheduledSetMissing;
+    }
+
+    synchronized void put(int id, long version, Map<String, Object> fields, byte[] plan)
+    {
+        refresh();
+        addOperation(putOperation(id, version, fields, plan));
+    }
+
+    synchronized boolean contains(int id)
+    {
+        refresh();
+        return mRecords.containsKey(id);
+    }
+
+    synchronized Record get(int id)
+    {
+        refresh();
+        return mRecords.get(id);
+    }
+
+    // Decodes the fields of a record, returns null if there is no record or it can't be read.
+    synchronized Map<String, Object> getFields(int id)
+    {
+        refresh();
+        Record record = mRecords.get(id);
+        if (record == null)
+            return null;
+
+        try {
+            return NotificationRecordCodec.decode(record.fields, mDictionary);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    synchronized void remove(int id)
+    {
+        refresh();
+        if (!mRecords.containsKey(id))
+            return;
+
+        addOperation(removeOperation(id));
+    }
+
+    synchronized Set<Integer> getIds()
+    {
+        refresh();
+        return new HashSet<Integer>(mRecords.keySet());
+    }
+
+    synchronized int size()
+    {
+        refresh();
+        return mRecords.size();
+    }
+
+    // Adds and removes ids of the scheduled set. Only the changes are recorded, so concurrent changes of other
+    // processes to other ids are kept.
+    synchronized void updateScheduled(Collection<Integer> added, Collection<Integer> removed)
+    {
+        refresh();
+        ArrayList<Integer> addedIds = new ArrayList<Integer>();
+        ArrayList<Integer> removedIds = new ArrayList<Integer>();
+        if (removed != null)
+        {
+            for (Integer id : removed)
+            {
+                if (mScheduled.contains(id) && (added == null || !added.contains(id)))
+                    removedIds.add(id);
+            }
+        }
+        if (added != null)
+        {
+            for (Integer id : added)
+            {
+                if (!mScheduled.contains(id))
+                    addedIds.add(id);
+            }
+        }
+        if (addedIds.isEmpty() && removedIds.isEmpty())
+            return;
+
+        addOperation(scheduledOperation(addedIds, removedIds));
+    }
+
+    synchronized Set<Integer> getScheduledIds()
+    {
+        final HashSet<Integer> ids = new HashSet<Integer>();
+        boolean indexed = isIndexNewer() && readIndex(new IndexReader() {
+            @Override
+            void read(MappedByteBuffer index, int count)
+            {
+                ids.clear();
+                for (int i = 0; i < count; i++)
+                {
+                    int offset = INDEX_HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+                    if ((index.getInt(offset + OFFSET_ENTRY_FLAGS) & FLAG_SCHEDULED) != 0)
+                        ids.add(index.getInt(offset));
+                }
+            }
+        });
+        if (indexed)
+            return ids;
+
+        refresh();
+        return new HashSet<Integer>(mScheduled);
+    }
+
+    synchronized boolean isScheduled(int id)
+    {
+        long[] entry = findIndexEntry(id);
+        if (entry != null)
+            return (entry[0] & FLAG_SCHEDULED) != 0;
+
+        refresh();
+        return mScheduled.contains(id);
+    }
+
+    // True if a record of the id with the specified version is stored.
+    synchronized boolean isStoredVersion(int id, long version)
+    {
+        long[] entry = findIndexEntry(id);
+        if (entry != null)
+            return (entry[0] & FLAG_RECORD) != 0 && entry[1] == version;
+
+        refresh();
+        Record record = mRecords.get(id);
+        return record != null && record.version == version;
+    }
+
+    // Writes pending changes right away, on the calling thread. Returns false if they couldn't be written, they're kept
+    // pending and written again later.
+    boolean flush()
+    {
+        synchronized (mFlushLock)
+        {
+            // Skip locking when an earlier flush already wrote everything.
+            synchronized (this)
+            {
+                if (!mWritePending)
+                    return true;
+            }
+
+            FileLock lock = lockIndex();
+            try {
+                byte[] batch;
+                byte[] contents = null;
+                long journalSize;
+                int count;
+                synchronized (this)
+                {
+                    if (!mWritePending)
+                        return true;
+
+                    if (!loadCommitted())
+                    {
+                        scheduleFlush(RETRY_DELAY);
+                        return false;
+                    }
+                    mWritePending = false;
+
+                    batch = encodeJournalBatch();
+                    count = mPending.size();
+                    journalSize = mJournalSize;
+                    if (journalSize + batch.length > CHECKPOINT_SIZE)
+                        contents = encodeStore();
+                    beginCommit();
+                }
+
+                boolean written = false;
+                if (contents != null)
+                {
+                    NotificationTrace.begin("UnityNotifications.writeNotificationStore");
+                    try {
+                        written = writeFile(contents);
+                    } finally {
+                        NotificationTrace.end();
+                    }
+
+                    if (written)
+                    {
+                        mJournalFile.delete();
+                        journalSize = 0L;
+                    }
+                }
+                if (!written)
+                {
+                    long appendedSize;
+                    NotificationTrace.begin("UnityNotifications.appendNotificationJournal");
+                    try {
+                        appendedSize = appendJournal(batch, journalSize);
+                    } finally {
+                        NotificationTrace.end();
+                    }
+
+                    written = appendedSize >= 0;
+                    if (written)
+                        journalSize = appendedSize;
+                }
+
+                synchronized (this)
+                {
+                    if (written)
+                    {
+                        mJournalSize = journalSize;
+                        // Operations added while writing stay pending for the next batch.
+                        mPending.subList(0, count).clear();
+                    }
+                    else
+                    {
+                        // Other processes read their loaded copy instead of an index of changes that weren't stored.
+                        if (mIndex != null)
+                            mIndex.putInt(OFFSET_COUNT, INDEX_INVALID);
+                        mWritePending = true;
+                        scheduleFlush(RETRY_DELAY);
+                    }
+                    endCommit();
+                }
+                return written;
+            } finally {
+                if (lock != null)
+                {
+                    try {
+                        lock.release();
+                    } catch (IOException ignored) {
+                        ;
+                    }
+                }
+            }
+        }
+    }
+
+    private Operation putOperation(final int id, final long version, final Map<String, Object> fields, final byte[] plan)
+    {
+        return new Operation() {
+            @Override
+            void apply()
+            {
+                applyPut(id, version, fields, plan);
+            }
+
+            @Override
+            void write(ByteArrayOutputStream out)
+            {
+                out.write(OPERATION_PUT);
+                NotificationRecordCodec.writeSignedVarLong(out, id);
+                NotificationRecordCodec.writeSignedVarLong(out, version);
+                NotificationRecordCodec.writeBytes(out, plan != null ? plan : new byte[0]);
+
+                // Journal entries carry their own strings, indexes of the store's dictionary differ between processes.
+                NotificationRecordCodec.writeStandalone(out, fields);
+            }
+        };
+    }
+
+    private Operation removeOperation(final int id)
+    {
+        return new Operation() {
+            @Override
+            void apply()
+            {
+                applyRemove(id);
+            }
+
+            @Override
+            void write(ByteArrayOutputStream out)
+            {
+                out.write(OPERATION_REMOVE);
+                NotificationRecordCodec.writeSignedVarLong(out, id);
+            }
+        };
+    }
+
+    private Operation scheduledOperation(final Collection<Integer> added, final Collection<Integer> removed)
+    {
+        return new Operation() {
+            @Override
+            void apply()
+            {
+                applyScheduled(added, removed);
+            }
+
+            @Override
+            void write(ByteArrayOutputStream out)
+            {
+                out.write(OPERATION_SCHEDULED);
+                NotificationRecordCodec.writeVarLong(out, added.size());
+                for (int id : added)
+                    NotificationRecordCodec.writeSignedVarLong(out, id);
+                NotificationRecordCodec.writeVarLong(out, removed.size());
+                for (int id : removed)
+                    NotificationRecordCodec.writeSignedVarLong(out, id);
+            }
+        };
+    }
+
+    private Operation readOperation(NotificationRecordCodec.Reader in) throws IOException
+    {
+        int type = in.readByte();
+        switch (type)
+        {
+            case OPERATION_PUT:
+            {
+                int id = (int)in.readSignedVarLong();
+                long version = in.readSignedVarLong();
+                byte[] plan = in.readBytes();
+                Map<String, Object> fields = NotificationRecordCodec.readStandalone(in);
+                return putOperation(id, version, fields, plan.length > 0 ? plan : null);
+            }
+            case OPERATION_REMOVE:
+                return removeOperation((int)in.readSignedVarLong());
+            case OPERATION_SCHEDULED:
+            {
+                ArrayList<Integer> added = new ArrayList<Integer>();
+                ArrayList<Integer> removed = new ArrayList<Integer>();
+                int addedCount = in.readVarInt();
+                for (int i = 0; i < addedCount; i++)
+                    added.add((int)in.readSignedVarLong());
+                int removedCount = in.readVarInt();
+                for (int i = 0; i < removedCount; i++)
+                    removed.add((int)in.readSignedVarLong());
+                return scheduledOperation(added, removed);
+            }
+            default:
+                throw new IOException("Unknown notification journal operation " + type);
+        }
+    }
+
+    private void applyPut(int id, long version, Map<String, Object> fields, byte[] plan)
+    {
+        NotificationRecordCodec.Encoded encoded = NotificationRecordCodec.encode(fields, mDictionary);
+        Record previous = mRecords.put(id, new Record(version, plan, encoded.bytes, encoded.references));
+
+        // Release after encoding the new record, so strings shared by both versions keep their index.
+        if (previous != null)
+            releaseReferences(previous);
+    }
+
+    private void applyRemove(int id)
+    {
+        Record record = mRecords.remove(id);
+        if (record != null)
+            releaseReferences(record);
+    }
+
+    private void applyScheduled(Collection<Integer> added, Collection<Integer> removed)
+    {
+        mScheduled.removeAll(removed);
+        mScheduled.addAll(added);
+    }
+
+    private void releaseReferences(Record record)
+    {
+        for (int index : record.references)
+            mDictionary.release(index);
+    }
+
+    private void addOperation(Operation operation)
+    {
+        operation.apply();
+        mPending.add(operation);
+        if (mWritePending)
+            return;
+
+        mWritePending = true;
+        scheduleFlush(GROUP_COMMIT_WINDOW);
+    }
+
+    private void scheduleFlush(long delay)
+    {
+        mWriter.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Loads the store again if another process committed changes since it was loaded, or if it couldn't be read before.
+    // Nothing is loaded while a commit is in progress, the loaded copy is used until it's complete.
+    private void refresh()
+    {
+        long generation = mIndex != null ? mIndex.getLong(OFFSET_GENERATION) : mGeneration;
+        if (mReadFailed || (generation != mGeneration && (generation & 1) == 0))
+            reload(generation);
+    }
+
+    // Called holding the index lock, no commit can be in progress. An odd generation is left by a process that died
+    // while committing. Returns false if the store couldn't be read, nothing may be committed then.
+    private boolean loadCommitted()
+    {
+        long generation = mIndex != null ? mIndex.getLong(OFFSET_GENERATION) : mGeneration;
+        if (mReadFailed || generation != mGeneration)
+            reload(generation);
+        return !mReadFailed;
+    }
+
+    private void reload(long generation)
+    {
+        if (!read())
+        {
+            mReadFailed = true;
+            return;
+        }
+
+        for (Operation operation : mPending)
+            operation.apply();
+        mGeneration = generation;
+        mReadFailed = false;
+    }
+
+    private byte[] encodeStore()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + mRecords.size() * 32);
+
+        writeInt(out, MAGIC);
+        out.write(FORMAT_VERSION);
+
+        NotificationRecordCodec.writeDictionary(out, mDictionary);
+
+        NotificationRecordCodec.writeVarLong(out, mRecords.size());
+        for (Map.Entry<Integer, Record> entry : mRecords.entrySet())
+        {
+            Record record = entry.getValue();
+            NotificationRecordCodec.writeSignedVarLong(out, entry.getKey());
+            NotificationRecordCodec.writeSignedVarLong(out, record.version);
+            NotificationRecordCodec.writeBytes(out, record.plan != null ? record.plan : new byte[0]);
+            NotificationRecordCodec.writeBytes(out, record.fields);
+        }
+
+        NotificationRecordCodec.writeVarLong(out, mScheduled.size());
+        for (int id : mScheduled)
+            NotificationRecordCodec.writeSignedVarLong(out, id);
+
+        return out.toByteArray();
+    }
+
+    private byte[] encodeJournalBatch()
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 * mPending.size());
+        for (Operation operation : mPending)
+            operation.write(payload);
+        byte[] bytes = payload.toByteArray();
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(JOURNAL_BATCH_HEADER_SIZE + bytes.length);
+        writeInt(out, bytes.length);
+        writeInt(out, (int)checksum.getValue());
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    // Appends a batch at the end of the complete batches of the journal and syncs it. Returns the new journal size, -1 if
+    // the batch couldn't be written.
+    private long appendJournal(byte[] batch, long journalSize)
+    {
+        RandomAccessFile journal = null;
+        try {
+            journal = new RandomAccessFile(mJournalFile, "rw");
+            // Drops a batch torn by a crash, it was never committed.
+            if (journal.length() != journalSize)
+                journal.setLength(journalSize);
+            journal.seek(journalSize);
+            journal.write(batch);
+            journal.getFD().sync();
+            return journalSize + batch.length;
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to write notification journal: " + e.getMessage());
+            return -1L;
+        } finally {
+            NotificationPayloadStore.closeQuietly(journal);
+        }
+    }
+
+    private boolean writeFile(byte[] contents)
+    {
+        File directory = mFile.getParentFile();
+        directory.mkdirs();
+        File temp = new File(directory, STORE_FILE + ".tmp");
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(contents);
+            out.getFD().sync();
+        } catch (IOException e) {
+            NotificationPayloadStore.closeQuietly(out);
+            temp.delete();
+            return false;
+        }
+        NotificationPayloadStore.closeQuietly(out);
+
+        if (!temp.renameTo(mFile))
+        {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    // Reads the file and replays the journal. Returns false if they couldn't be read, the loaded copy is left as it is.
+    private boolean read()
+    {
+        byte[] contents;
+        byte[] journal;
+        try {
+            contents = readBytes(mFile);
+            journal = readBytes(mJournalFile);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to read notification store: " + e.getMessage());
+            return false;
+        }
+
+        mRecords.clear();
+        mDictionary.clear();
+        mScheduled.clear();
+        if (contents != null)
+            decodeFile(contents);
+        readJournal(journal);
+        return true;
+    }
+
+    // Returns null if the file doesn't exist.
+    private static byte[] readBytes(File file) throws IOException
+    {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            if (file.exists())
+                throw e;
+            return null;
+        }
+
+        try {
+            return NotificationPayloadStore.readFully(in);
+        } finally {
+            NotificationPayloadStore.closeQuietly(in);
+        }
+    }
+
+    private void decodeFile(byte[] contents)
+    {
+        try {
+            decodeStore(contents);
+        } catch (IOException e) {
+            // A damaged store is dropped, notifications that are still scheduled keep their alarms. The next commit
+            // replaces the file, a copy is kept.
+            Log.w("UnityNotifications", "Notification store is damaged: " + e.getMessage());
+            mRecords.clear();
+            mDictionary.clear();
+            mScheduled.clear();
+            keepDamagedFile(contents);
+        }
+    }
+
+    private void keepDamagedFile(byte[] contents)
+    {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(mFile.getPath() + DAMAGED_SUFFIX));
+            out.write(contents);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to keep damaged notification store: " + e.getMessage());
+        } finally {
+            NotificationPayloadStore.closeQuietly(out);
+        }
+    }
+
+    private void decodeStore(byte[] contents) throws IOException
+    {
+        NotificationRecordCodec.Reader in = new NotificationRecordCodec.Reader(contents, 0, contents.length);
+
+        int magic = (in.readByte() << 24) | (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+        int formatVersion = in.readByte();
+        if (magic != MAGIC || (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_WITHOUT_SCHEDULED_IDS))
+            throw new IOException("Unsupported notification store format");
+
+        NotificationRecordCodec.readDictionary(in, mDictionary);
+
+        int recordCount = in.readVarInt();
+        for (int i = 0; i < recordCount; i++)
+        {
+            int id = (int)in.readSignedVarLong();
+            long version = in.readSignedVarLong();
+            byte[] plan = in.readBytes();
+            byte[] fields = in.readBytes();
+
+            int[] references = NotificationRecordCodec.collectReferences(fields);
+            for (int index : references)
+                mDictionary.retain(index);
+
+            mRecords.put(id, new Record(version, plan.length > 0 ? plan : null, fields, references));
+        }
+
+        mDictionary.releaseUnreferenced();
+
+        if (formatVersion == FORMAT_VERSION_WITHOUT_SCHEDULED_IDS)
+        {
+            mScheduledSetMissing = true;
+            return;
+        }
+
+        int scheduledCount = in.readVarInt();
+        for (int i = 0; i < scheduledCount; i++)
+            mScheduled.add((int)in.readSignedVarLong());
+    }
+
+    // Replays the complete batches of the journal, reading stops at the first torn or damaged batch.
+    private void readJournal(byte[] journal)
+    {
+        mJournalSize = 0L;
+        if (journal == null)
+            return;
+
+        int position = 0;
+        while (journal.length - position >= JOURNAL_BATCH_HEADER_SIZE)
+        {
+            int length = readInt(journal, position);
+            int start = position + JOURNAL_BATCH_HEADER_SIZE;
+            if (length < 0 || length > journal.length - start)
+                break;
+
+            CRC32 checksum = new CRC32();
+            checksum.update(journal, start, length);
+            if ((int)checksum.getValue() != readInt(journal, position + 4))
+                break;
+
+            // Decode the whole batch first, so a batch is either applied completely or not at all.
+            ArrayList<Operation> operations = new ArrayList<Operation>();
+            try {
+                NotificationRecordCodec.Reader reader = new NotificationRecordCodec.Reader(journal, start, length);
+                while (reader.hasMore())
+                    operations.add(readOperation(reader));
+            } catch (IOException e) {
+                break;
+            }
+
+            for (Operation operation : operations)
+                operation.apply();
+            position = start + length;
+        }
+
+        mJournalSize = position;
+    }
+
+    private void openIndex()
+    {
+        FileLock lock = null;
+        try {
+            mIndexFile.getParentFile().mkdirs();
+            mIndexChannel = new RandomAccessFile(mIndexFile, "rw").getChannel();
+            lock = mIndexChannel.lock();
+
+            mapIndex(INDEX_INITIAL_CAPACITY);
+            if (mIndex.getInt(0) != INDEX_MAGIC)
+            {
+                mIndex.putInt(OFFSET_CAPACITY, INDEX_INITIAL_CAPACITY);
+                mIndex.putLong(OFFSET_GENERATION, 0L);
+                mIndex.putInt(OFFSET_COUNT, INDEX_INVALID);
+                mIndex.putInt(0, INDEX_MAGIC);
+            }
+            else if (mIndex.getInt(OFFSET_CAPACITY) != mIndexCapacity)
+            {
+                mapIndex(mIndex.getInt(OFFSET_CAPACITY));
+            }
+        } catch (IOException e) {
+            // Without the index the store still works, but changes of other processes are only seen after a restart.
+            Log.w("UnityNotifications", "Notification store index is not available: " + e.getMessage());
+            NotificationPayloadStore.closeQuietly(mIndexChannel);
+            mIndexChannel = null;
+            mIndex = null;
+        } finally {
+            if (lock != null && mIndexChannel != null)
+            {
+                try {
+                    lock.release();
+                } catch (IOException ignored) {
+                    ;
+                }
+            }
+        }
+    }
+
+    private void mapIndex(int capacity) throws IOException
+    {
+        mIndex = mIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long)capacity * INDEX_ENTRY_SIZE);
+        mIndexCapacity = capacity;
+    }
+
+    private FileLock lockIndex()
+    {
+        if (mIndexChannel == null)
+            return null;
+
+        try {
+            return mIndexChannel.lock();
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to lock notification store: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // True if the index holds changes of another process which this process didn't load and isn't about to overwrite.
+    private boolean isIndexNewer()
+    {
+        return mIndex != null && mPending.isEmpty() && mIndex.getLong(OFFSET_GENERATION) != mGeneration;
+    }
+
+    private boolean readIndex(IndexReader reader)
+    {
+        for (int attempt = 0; attempt < INDEX_READ_ATTEMPTS; attempt++)
+        {
+            long generation = mIndex.getLong(OFFSET_GENERATION);
+            if ((generation & 1) == 0)
+            {
+                int capacity = mIndex.getInt(OFFSET_CAPACITY);
+                int count = mIndex.getInt(OFFSET_COUNT);
+                if (count == INDEX_INVALID)
+                    return false;
+
+                try {
+                    if (capacity != mIndexCapacity)
+                        mapIndex(capacity);
+                    reader.read(mIndex, Math.min(count, mIndexCapacity));
+                } catch (IOException e) {
+                    return false;
+                } catch (IllegalArgumentException e) {
+                    return false;
+                } catch (IndexOutOfBoundsException e) {
+                    // Read while the index was rewritten, the generation check below fails.
+                }
+
+                if (mIndex.getLong(OFFSET_GENERATION) == generation)
+                    return true;
+            }
+            Thread.yield();
+        }
+        return false;
+    }
+
+    // Returns {flags, version} of the id from the index, {0, 0} if the id isn't in it, or null if the loaded copy should
+    // be used instead.
+    private long[] findIndexEntry(final int id)
+    {
+        if (!isIndexNewer())
+            return null;
+
+        final long[] entry = new long[2];
+        boolean indexed = readIndex(new IndexReader() {
+            @Override
+            void read(MappedByteBuffer index, int count)
+            {
+                entry[0] = 0;
+                entry[1] = 0;
+
+                int low = 0, high = count - 1;
+                while (low <= high)
+                {
+                    int middle = (low + high) >>> 1;
+                    int offset = INDEX_HEADER_SIZE + middle * INDEX_ENTRY_SIZE;
+                    int entryId = index.getInt(offset);
+                    if (entryId < id)
+                        low = middle + 1;
+                    else if (entryId > id)
+                        high = middle - 1;
+                    else
+                    {
+                        entry[0] = index.getInt(offset + OFFSET_ENTRY_FLAGS);
+                        entry[1] = index.getLong(offset + OFFSET_ENTRY_VERSION);
+                        return;
+                    }
+                }
+            }
+        });
+        return indexed ? entry : null;
+    }
+
+    // Marks a commit as in progress and writes the index of the state being committed.
+    private void beginCommit()
+    {
+        if (mIndex == null)
+            return;
+
+        // The next odd generation, larger than the current one even if a previous commit never ended.
+        mGeneration = (mIndex.getLong(OFFSET_GENERATION) + 1) | 1;
+        mIndex.putLong(OFFSET_GENERATION, mGeneration);
+
+        TreeSet<Integer> ids = new TreeSet<Integer>(mRecords.keySet());
+        ids.addAll(mScheduled);
+
+        try {
+            if (ids.size() > mIndexCapacity)
+            {
+                int capacity = mIndexCapacity;
+                while (capacity < ids.size())
+                    capacity *= 2;
+                mapIndex(capacity);
+                mIndex.putInt(OFFSET_CAPACITY, capacity);
+            }
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to grow notification store index: " + e.getMessage());
+            mIndex.putInt(OFFSET_COUNT, INDEX_INVALID);
+            return;
+        }
+
+        int offset = INDEX_HEADER_SIZE;
+        for (int id : ids)
+        {
+            Record record = mRecords.get(id);
+            int flags = (mScheduled.contains(id) ? FLAG_SCHEDULED : 0) | (record != null ? FLAG_RECORD : 0);
+            mIndex.putInt(offset, id);
+            mIndex.putInt(offset + OFFSET_ENTRY_FLAGS, flags);
+            mIndex.putLong(offset + OFFSET_ENTRY_VERSION, record != null ? record.version : 0L);
+            offset += INDEX_ENTRY_SIZE;
+        }
+        mIndex.putInt(OFFSET_COUNT, ids.size());
+    }
+
+    private void endCommit()
+    {
+        if (mIndex == null)
+            return;
+
+        mGeneration++;
+        mIndex.putLong(OFFSET_GENERATION, mGeneration);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value)
+    {
+        out.write((value >>> 24) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    private static int readInt(byte[] bytes, int offset)
+    {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
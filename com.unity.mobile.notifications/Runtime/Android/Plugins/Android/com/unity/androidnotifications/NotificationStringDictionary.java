@@ -0,0 +1,122 @@
+package com.unity.androidnotifications;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Reference counted string table shared by all stored notification records. Records store a small index instead of
+// repeating strings like channel ids, icon names, groups, extra keys or identical titles. Indices of strings which are
+// no longer referenced are reused.
+class NotificationStringDictionary
+{
+    private final ArrayList<String> mStrings = new ArrayList<String>();
+    private final ArrayList<Integer> mRefCounts = new ArrayList<Integer>();
+    private final HashMap<String, Integer> mIndices = new HashMap<String, Integer>();
+    private final ArrayList<Integer> mFreeIndices = new ArrayList<Integer>();
+
+    // Returns the index of the string, adding it if necessary, and takes a reference on it.
+    int acquire(String value)
+    {
+        Integer index = mIndices.get(value);
+        if (index != null)
+        {
+            mRefCounts.set(index, mRefCounts.get(index) + 1);
+            return index;
+        }
+
+        int newIndex;
+        if (!mFreeIndices.isEmpty())
+        {
+            newIndex = mFreeIndices.remove(mFreeIndices.size() - 1);
+            mStrings.set(newIndex, value);
+            mRefCounts.set(newIndex, 1);
+        }
+        else
+        {
+            newIndex = mStrings.size();
+            mStrings.add(value);
+            mRefCounts.add(1);
+        }
+
+        mIndices.put(value, newIndex);
+        return newIndex;
+    }
+
+    void release(int index)
+    {
+        if (index < 0 || index >= mStrings.size() || mStrings.get(index) == null)
+            return;
+
+        int refCount = mRefCounts.get(index) - 1;
+        if (refCount > 0)
+        {
+            mRefCounts.set(index, refCount);
+            return;
+        }
+
+        mIndices.remove(mStrings.get(index));
+        mStrings.set(index, null);
+        mRefCounts.set(index, 0);
+        mFreeIndices.add(index);
+    }
+
+    String get(int index)
+    {
+        if (index < 0 || index >= mStrings.size())
+            return null;
+        return mStrings.get(index);
+    }
+
+    // Places a string at a specific index when loading, it starts without references.
+    void restore(int index, String value)
+    {
+        while (mStrings.size() <= index)
+        {
+            mFreeIndices.add(mStrings.size());
+            mStrings.add(null);
+            mRefCounts.add(0);
+        }
+
+        mFreeIndices.remove(Integer.valueOf(index));
+        mStrings.set(index, value);
+        mIndices.put(value, index);
+    }
+
+    // Takes a reference on an already present index, used when records are loaded.
+    void retain(int index)
+    {
+        if (index >= 0 && index < mStrings.size() && mStrings.get(index) != null)
+            mRefCounts.set(index, mRefCounts.get(index) + 1);
+    }
+
+    // Drops strings that ended up without references after loading.
+    void releaseUnreferenced()
+    {
+        for (int i = 0; i < mStrings.size(); i++)
+        {
+            if (mStrings.get(i) != null && mRefCounts.get(i) == 0)
+            {
+                mIndices.remove(mStrings.get(i));
+                mStrings.set(i, null);
+                mFreeIndices.add(i);
+            }
+        }
+    }
+
+    int capacity()
+    {
+        return mStrings.size();
+    }
+
+    int size()
+    {
+        return mIndices.size();
+    }
+
+    void clear()
+    {
+        mStrings.clear();
+        mRefCounts.clear();
+        mIndices.clear();
+        mFreeIndices.clear();
+    }
+}
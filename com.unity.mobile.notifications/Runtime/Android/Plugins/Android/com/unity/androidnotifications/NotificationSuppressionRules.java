@@ -0,0 +1,261 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+// Rules checked when a notification's alarm goes off, before it's built and posted:
+//  - quiet hours, a daily time window (optionally of one channel) in which notifications are deferred to the end of the
+//    window or dropped,
+//  - channel mutes, notifications of a muted channel are dropped,
+//  - daily caps, notifications of a channel (or of all channels) beyond the maximum per day are deferred to the next day
+//    or dropped.
+// Scheduled notifications keep their alarms, so adding or removing a rule costs one preference write instead of
+// canceling and rescheduling every affected notification.
+//
+// Rules are kept in UNITY_NOTIFICATION_SUPPRESSION_RULES, one entry per rule id encoded as
+// "type,action,start,end,limit,channel", and cached in memory. The number of notifications shown per day for capped
+// channels is kept in UNITY_NOTIFICATION_SUPPRESSION_COUNTS as (day << 32 | count).
+class NotificationSuppressionRules
+{
+    static final String UNITY_NOTIFICATION_SUPPRESSION_RULES = "UNITY_NOTIFICATION_SUPPRESSION_RULES";
+    static final String UNITY_NOTIFICATION_SUPPRESSION_COUNTS = "UNITY_NOTIFICATION_SUPPRESSION_COUNTS";
+
+    static final int ACTION_DEFER = 0;
+    static final int ACTION_DROP = 1;
+
+    static final int TYPE_QUIET_HOURS = 0;
+    static final int TYPE_CHANNEL_MUTE = 1;
+    static final int TYPE_DAILY_CAP = 2;
+
+    // Results of evaluate, any other value is the time to defer the notification to.
+    static final long SHOW = 0L;
+    static final long DROP = -1L;
+
+    private static final String ALL_CHANNELS = "";
+
+    static class Rule
+    {
+        int type;
+        int action;
+        int start; // minute of the day
+        int end;   // minute of the day, the window wraps around midnight if it's before start
+        int limit;
+        String channel; // null for all channels
+
+        boolean appliesTo(String notificationChannel)
+        {
+            return channel == null || channel.equals(notificationChannel);
+        }
+    }
+
+    private static Map<String, Rule> mRules;
+
+    private static Map<String, Rule> load(Context context)
+    {
+        if (mRules != null)
+            return mRules;
+
+        mRules = new HashMap<String, Rule>();
+        for (Map.Entry<String, ?> entry : getRulePrefs(context).getAll().entrySet())
+        {
+            Rule rule = entry.getValue() instanceof String ? decode((String)entry.getValue()) : null;
+            if (rule != null)
+                mRules.put(entry.getKey(), rule);
+        }
+        return mRules;
+    }
+
+    private static SharedPreferences getRulePrefs(Context context)
+    {
+        return context.getSharedPreferences(UNITY_NOTIFICATION_SUPPRESSION_RULES, Context.MODE_PRIVATE);
+    }
+
+    private static String encode(Rule rule)
+    {
+        return rule.type + "," + rule.action + "," + rule.start + "," + rule.end + "," + rule.limit + ","
+            + (rule.channel != null ? rule.channel : "");
+    }
+
+    private static Rule decode(String value)
+    {
+        String[] parts = value.split(",", 6);
+        if (parts.length != 6)
+            return null;
+
+        try {
+            Rule rule = new Rule();
+            rule.type = Integer.parseInt(parts[0]);
+            rule.action = Integer.parseInt(parts[1]);
+            rule.start = Integer.parseInt(parts[2]);
+            rule.end = Integer.parseInt(parts[3]);
+            rule.limit = Integer.parseInt(parts[4]);
+            rule.channel = parts[5].length() > 0 ? parts[5] : null;
+            return rule;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static synchronized void put(Context context, String id, Rule rule)
+    {
+        load(context).put(id, rule);
+        getRulePrefs(context).edit().putString(id, encode(rule)).apply();
+    }
+
+    static synchronized void remove(Context context, String id)
+    {
+        load(context).remove(id);
+        getRulePrefs(context).edit().remove(id).apply();
+    }
+
+    static synchronized void clear(Context context)
+    {
+        load(context).clear();
+        getRulePrefs(context).edit().clear().apply();
+        context.getSharedPreferences(UNITY_NOTIFICATION_SUPPRESSION_COUNTS, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    static Rule quietHours(String channel, int startMinute, int endMinute, int action)
+    {
+        Rule rule = new Rule();
+        rule.type = TYPE_QUIET_HOURS;
+        rule.action = action;
+        rule.start = startMinute;
+        rule.end = endMinute;
+        rule.channel = channel;
+        return rule;
+    }
+
+    static Rule channelMute(String channel)
+    {
+        Rule rule = new Rule();
+        rule.type = TYPE_CHANNEL_MUTE;
+        rule.action = ACTION_DROP;
+        rule.channel = channel;
+        return rule;
+    }
+
+    static Rule dailyCap(String channel, int maxPerDay, int action)
+    {
+        Rule rule = new Rule();
+        rule.type = TYPE_DAILY_CAP;
+        rule.action = action;
+        rule.limit = maxPerDay;
+        rule.channel = channel;
+        return rule;
+    }
+
+    // Returns SHOW, DROP or the time to defer the notification to. Dropping wins over deferring, the latest deferral
+    // wins over earlier ones. Notifications that are shown are counted towards the daily caps.
+    static synchronized long evaluate(Context context, String channel, long now)
+    {
+        Map<String, Rule> rules = load(context);
+        if (rules.isEmpty())
+            return SHOW;
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        int day = calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+
+        SharedPreferences counts = null;
+        long result = SHOW;
+
+        for (Rule rule : rules.values())
+        {
+            if (!rule.appliesTo(channel))
+                continue;
+
+            long deferTo = SHOW;
+            switch (rule.type)
+            {
+                case TYPE_CHANNEL_MUTE:
+                    return DROP;
+                case TYPE_QUIET_HOURS:
+                    if (!isInWindow(minute, rule.start, rule.end))
+                        continue;
+                    deferTo = getNextMinuteOfDay(calendar, rule.end);
+                    break;
+                case TYPE_DAILY_CAP:
+                    if (counts == null)
+                        counts = context.getSharedPreferences(UNITY_NOTIFICATION_SUPPRESSION_COUNTS, Context.MODE_PRIVATE);
+                    if (getCount(counts, rule.channel, day) < rule.limit)
+                        continue;
+                    deferTo = getNextMinuteOfDay(calendar, 0);
+                    break;
+                default:
+                    continue;
+            }
+
+            if (rule.action == ACTION_DROP)
+                return DROP;
+            result = Math.max(result, deferTo);
+        }
+
+        if (result == SHOW)
+            countShown(context, rules, channel, day);
+        return result;
+    }
+
+    private static boolean isInWindow(int minute, int start, int end)
+    {
+        if (start <= end)
+            return minute >= start && minute < end;
+        return minute >= start || minute < end;
+    }
+
+    // The next time the local clock shows minuteOfDay, at least a minute after the current time.
+    private static long getNextMinuteOfDay(Calendar now, int minuteOfDay)
+    {
+        Calendar next = (Calendar)now.clone();
+        next.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+        next.set(Calendar.MINUTE, minuteOfDay % 60);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (next.getTimeInMillis() <= now.getTimeInMillis())
+            next.add(Calendar.DAY_OF_YEAR, 1);
+        return next.getTimeInMillis();
+    }
+
+    private static int getCount(SharedPreferences counts, String channel, int day)
+    {
+        long value = counts.getLong(channel != null ? channel : ALL_CHANNELS, 0L);
+        return (int)(value >>> 32) == day ? (int)value : 0;
+    }
+
+    // Only the channels that are capped are counted.
+    private static void countShown(Context context, Map<String, Rule> rules, String channel, int day)
+    {
+        SharedPreferences counts = null;
+        SharedPreferences.Editor editor = null;
+        boolean countedAll = false, countedChannel = false;
+
+        for (Rule rule : rules.values())
+        {
+            if (rule.type != TYPE_DAILY_CAP || !rule.appliesTo(channel))
+                continue;
+            if (rule.channel == null ? countedAll : countedChannel)
+                continue;
+
+            if (counts == null)
+            {
+                counts = context.getSharedPreferences(UNITY_NOTIFICATION_SUPPRESSION_COUNTS, Context.MODE_PRIVATE);
+                editor = counts.edit();
+            }
+
+            int count = getCount(counts, rule.channel, day) + 1;
+            editor.putLong(rule.channel != null ? rule.channel : ALL_CHANNELS, ((long)day << 32) | count);
+            if (rule.channel == null)
+                countedAll = true;
+            else
+                countedChannel = true;
+        }
+
+        if (editor != null)
+            editor.apply();
+    }
+}
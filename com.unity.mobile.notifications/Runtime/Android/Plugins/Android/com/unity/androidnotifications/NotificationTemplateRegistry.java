@@ -0,0 +1,154 @@
+package com.unity.androidnotifications;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Title and body patterns which are registered once and rendered when a notification is built. Notifications that only
+// differ in a few values store just the template id and their parameters (the "templateId" and "templateParams"
+// extras) instead of the full texts. Changing the wording or adding a locale only needs the template to be registered
+// again, scheduled notifications use the new patterns the next time they fire.
+//
+// Patterns are kept in UNITY_NOTIFICATION_TEMPLATES as "<id>/<locale>/title" and "<id>/<locale>/body", the empty locale
+// is the fallback. Ids and locales can't contain '/', so the keys of a template are exactly the keys starting with
+// "<id>/". Parameters are referenced as {name} in the patterns, "templateParams" holds name/value pairs separated by
+// PARAMETER_SEPARATOR with VALUE_SEPARATOR between the name and the value.
+class NotificationTemplateRegistry
+{
+    static final String UNITY_NOTIFICATION_TEMPLATES = "UNITY_NOTIFICATION_TEMPLATES";
+    static final char PARAMETER_SEPARATOR = '\u001e';
+    static final char VALUE_SEPARATOR = '\u001f';
+
+    private static String getKey(String id, String locale, String part)
+    {
+        return id + "/" + locale + "/" + part;
+    }
+
+    // Locale tags are matched as "language-COUNTRY" or "language", underscores are accepted as separators.
+    private static String normalizeLocale(String locale)
+    {
+        return locale == null ? "" : locale.replace('_', '-');
+    }
+
+    static boolean isValidId(String id)
+    {
+        return id != null && id.length() > 0 && id.indexOf('/') < 0;
+    }
+
+    static void register(Context context, String id, String locale, String title, String body)
+    {
+        String tag = normalizeLocale(locale);
+        if (!isValidId(id) || tag.indexOf('/') >= 0)
+        {
+            Log.w("UnityNotifications", "Notification template id and locale can't be empty or contain '/', template " + id + " is not registered");
+            return;
+        }
+
+        context.getSharedPreferences(UNITY_NOTIFICATION_TEMPLATES, Context.MODE_PRIVATE).edit()
+                .putString(getKey(id, tag, "title"), title)
+                .putString(getKey(id, tag, "body"), body)
+                .apply();
+    }
+
+    // Removes the patterns of all locales of the template.
+    static void delete(Context context, String id)
+    {
+        if (!isValidId(id))
+            return;
+
+        SharedPreferences prefs = context.getSharedPreferences(UNITY_NOTIFICATION_TEMPLATES, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = null;
+        String prefix = id + "/";
+
+        for (String key : prefs.getAll().keySet())
+        {
+            if (!key.startsWith(prefix))
+                continue;
+            if (editor == null)
+                editor = prefs.edit();
+            editor.remove(key);
+        }
+
+        if (editor != null)
+            editor.apply();
+    }
+
+    // Returns {title, body} for the current locale with the parameters filled in, null if the template isn't registered.
+    static String[] render(Context context, String id, String parameters)
+    {
+        SharedPreferences prefs = context.getSharedPreferences(UNITY_NOTIFICATION_TEMPLATES, Context.MODE_PRIVATE);
+        Locale current = Locale.getDefault();
+        String language = current.getLanguage();
+        String country = current.getCountry();
+
+        String[] candidates = { country.length() > 0 ? language + "-" + country : null, language, "" };
+        for (String locale : candidates)
+        {
+            if (locale == null || !prefs.contains(getKey(id, locale, "title")))
+                continue;
+
+            Map<String, String> values = decodeParameters(parameters);
+            return new String[] {
+                fill(prefs.getString(getKey(id, locale, "title"), null), values),
+                fill(prefs.getString(getKey(id, locale, "body"), null), values),
+            };
+        }
+
+        return null;
+    }
+
+    static Map<String, String> decodeParameters(String parameters)
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        if (parameters == null || parameters.length() == 0)
+            return values;
+
+        int start = 0;
+        while (start <= parameters.length())
+        {
+            int end = parameters.indexOf(PARAMETER_SEPARATOR, start);
+            if (end < 0)
+                end = parameters.length();
+
+            int separator = parameters.indexOf(VALUE_SEPARATOR, start);
+            if (separator >= 0 && separator < end)
+                values.put(parameters.substring(start, separator), parameters.substring(separator + 1, end));
+
+            start = end + 1;
+        }
+        return values;
+    }
+
+    // Replaces {name} with the value of the parameter, placeholders without a value are left as they are.
+    static String fill(String pattern, Map<String, String> values)
+    {
+        if (pattern == null || values.isEmpty() || pattern.indexOf('{') < 0)
+            return pattern;
+
+        StringBuilder result = new StringBuilder(pattern.length() + 16);
+        int position = 0;
+        while (position < pattern.length())
+        {
+            int open = pattern.indexOf('{', position);
+            int close = open >= 0 ? pattern.indexOf('}', open + 1) : -1;
+            if (close < 0)
+            {
+                result.append(pattern, position, pattern.length());
+                break;
+            }
+
+            String value = values.get(pattern.substring(open + 1, close));
+            result.append(pattern, position, open);
+            if (value != null)
+                result.append(value);
+            else
+                result.append(pattern, open, close + 1);
+            position = close + 1;
+        }
+        return result.toString();
+    }
+}
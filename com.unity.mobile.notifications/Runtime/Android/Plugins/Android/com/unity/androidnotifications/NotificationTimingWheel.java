@@ -0,0 +1,131 @@
+package com.unity.androidnotifications;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Hierarchical timing wheel of notification ids keyed by an expiry time.
+//
+// Times are rounded up to ticks of TICK_MILLIS. Each of the LEVELS wheels has SLOTS slots, a slot of level L covers
+// SLOTS^L ticks, so 4 levels of 64 one minute slots cover about 31 years. Entries are put into the lowest level whose
+// range covers their expiry and cascade down a level each time the lower wheel completes a turn. Adding an entry and
+// collecting it when it expires is amortized O(1), regardless of how many entries the wheel holds.
+//
+// Entries can't be removed, callers check whether an expired id is still relevant when it's collected.
+class NotificationTimingWheel
+{
+    static final long TICK_MILLIS = 60 * 1000L;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private static class Entry
+    {
+        final int id;
+        final long tick;
+
+        Entry(int id, long tick)
+        {
+            this.id = id;
+            this.tick = tick;
+        }
+    }
+
+    private final ArrayList<Entry>[][] mSlots;
+    private final ArrayList<Entry> mDue = new ArrayList<Entry>();
+    private long mCurrentTick;
+    private int mSize = 0;
+
+    @SuppressWarnings("unchecked")
+    NotificationTimingWheel(long now)
+    {
+        mSlots = new ArrayList[LEVELS][SLOTS];
+        mCurrentTick = toTick(now);
+    }
+
+    private static long toTick(long time)
+    {
+        return (time + TICK_MILLIS - 1) / TICK_MILLIS;
+    }
+
+    void add(int id, long expiry)
+    {
+        insert(new Entry(id, toTick(expiry)));
+        mSize++;
+    }
+
+    private void insert(Entry entry)
+    {
+        long delta = entry.tick - mCurrentTick;
+        if (delta <= 0)
+        {
+            mDue.add(entry);
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1))))
+            level++;
+
+        // Expiries beyond the last wheel wait in it's furthest slot and are placed again when they come around.
+        long tick = Math.min(entry.tick, mCurrentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        int slot = (int)((tick >> (SLOT_BITS * level)) & SLOT_MASK);
+
+        ArrayList<Entry> entries = mSlots[level][slot];
+        if (entries == null)
+        {
+            entries = new ArrayList<Entry>();
+            mSlots[level][slot] = entries;
+        }
+        entries.add(entry);
+    }
+
+    // Advances the wheel to the specified time and adds the ids that expired until then to expired.
+    void advance(long now, List<Integer> expired)
+    {
+        long targetTick = toTick(now);
+
+        while (mCurrentTick < targetTick)
+        {
+            // Nothing left to cascade, jump straight to the target.
+            if (mSize == mDue.size())
+            {
+                mCurrentTick = targetTick;
+                break;
+            }
+
+            mCurrentTick++;
+
+            // Cascade the higher levels whose lower wheel completed a turn, highest first.
+            int level = 1;
+            while (level < LEVELS && (mCurrentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                level++;
+            for (int l = level - 1; l >= 1; l--)
+                cascade(l, (int)((mCurrentTick >> (SLOT_BITS * l)) & SLOT_MASK));
+
+            cascade(0, (int)(mCurrentTick & SLOT_MASK));
+        }
+
+        for (Entry entry : mDue)
+            expired.add(entry.id);
+        mSize -= mDue.size();
+        mDue.clear();
+    }
+
+    private void cascade(int level, int slot)
+    {
+        ArrayList<Entry> entries = mSlots[level][slot];
+        if (entries == null || entries.isEmpty())
+            return;
+
+        mSlots[level][slot] = null;
+        for (Entry entry : entries)
+            insert(entry);
+    }
+
+    int size()
+    {
+        return mSize;
+    }
+}
@@ -0,0 +1,40 @@
+package com.unity.androidnotifications;
+
+import android.os.Build;
+import android.os.Trace;
+
+// Systrace / Perfetto sections around the scheduling and delivery paths, they show up in traces of the
+// "UnityNotifications" sections when tracing the app. Tracing is compiled out unless ENABLED is set to true,
+// so in regular builds the calls below are empty and get inlined away.
+//
+// Async sections use the notification id as cookie, linking a notification's schedule to its delivery.
+class NotificationTrace
+{
+    static final boolean ENABLED = false;
+
+    static final String NOTIFICATION_LIFETIME = "UnityNotifications.notification";
+
+    static void begin(String name)
+    {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.beginSection(name);
+    }
+
+    static void end()
+    {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.endSection();
+    }
+
+    static void beginAsync(String name, int cookie)
+    {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            Trace.beginAsyncSection(name, cookie);
+    }
+
+    static void endAsync(String name, int cookie)
+    {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            Trace.endAsyncSection(name, cookie);
+    }
+}
@@ -19,6 +19,8 @@ import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.BadParcelableException;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.Keep;
@@ -28,9 +30,13 @@ import android.content.SharedPreferences;
 
 import static android.app.Notification.VISIBILITY_PUBLIC;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Set;
@@ -38,6 +44,10 @@ import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
 
 
 import java.lang.Integer;
@@ -47,10 +57,18 @@ public class UnityNotificationManager extends BroadcastReceiver
 {
     private static NotificationCallback mNotificationCallback;
     public static UnityNotificationManager mManager;
+    private static boolean mProcessWorkStarted = false;
+
+    // Held while the schedule state of a notification (id set, record, alarm and indexes) is changed by scheduling,
+    // delivering, canceling, restoring, syncing or purging it, so concurrent calls for the same id leave it in the state
+    // of one of them. NotificationSegments and NotificationExpirySweeper are locked before it, the store and the indexes
+    // after it, so the segments are never changed while holding it.
+    static final Object mScheduleLock = new Object();
 
     public Context mContext = null;
     public Activity mActivity = null;
     public Class mOpenActivity = null;
+    private int[] mRepairCounts = new int[] { 0, 0 };
     public boolean reschedule_on_restart = false;
 
     /// Static stuff TODO cleanup
@@ -60,6 +78,18 @@ public class UnityNotificationManager extends BroadcastReceiver
     public static final String UNITY_STORED_NOTIFICATION_IDS = "UNITY_STORED_NOTIFICATION_IDS";
     public static final String DEFAULT_APP_ICON = "app_icon";
 
+    // Delivered notifications are kept (id -> delivery time) so the notification can be loaded when it's tapped.
+    public static final String UNITY_DELIVERED_NOTIFICATIONS = "UNITY_DELIVERED_NOTIFICATIONS";
+    static final long DELIVERED_NOTIFICATION_RETENTION = 7 * 24 * 60 * 60 * 1000L;
+
+    public static final String ACTION_NOTIFICATION_DISMISSED = "com.unity.androidnotifications.NOTIFICATION_DISMISSED";
+    // Action of the one-shot alarm of a deferred occurrence of a repeating notification, so it doesn't replace the repeating alarm.
+    static final String ACTION_DEFERRED_NOTIFICATION = "com.unity.androidnotifications.DEFERRED_NOTIFICATION";
+    static final String OPEN_ACTIVITY_CLASS = "OpenActivityClass";
+
+    // Definition hashes of the registered channels are stored as "ChannelHash_<id>" in UNITY_NOTIFICATION_SETTINGS.
+    static final String CHANNEL_HASH_PREFIX = "ChannelHash_";
+
     public static int findResourceidInContextByName(String name, Context context)
     {
         if (name == null)
@@ -150,32 +180,281 @@ public class UnityNotificationManager extends BroadcastReceiver
 
     public static void SaveNotificationIntent(Intent intent, Context context) {
 
-        String notification_id = Integer.toString(intent.getIntExtra("id", 0));;
-        SharedPreferences prefs = context.getSharedPreferences(String.format("u_notification_data_%s", notification_id), Context.MODE_PRIVATE);
+        String notification_id = Integer.toString(intent.getIntExtra("id", 0));
+        writeNotificationIntentData(intent, context);
 
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.clear();
+        // Store IDs
+        updateScheduledNotificationIds(context, Collections.singleton(notification_id), null);
+    }
+
+    // Records of scheduled and delivered notifications, see NotificationStore.
+    static NotificationStore getNotificationStore(Context context)
+    {
+        synchronized (NotificationStore.class)
+        {
+            NotificationStore store = NotificationStore.getInstance(context.getFilesDir());
+            if ((store.isCreated() || store.isScheduledSetMissing()) && !mStoreMigrated)
+            {
+                mStoreMigrated = true;
+                if (store.isCreated())
+                    migrateNotificationRecords(store, context);
+                if (store.isScheduledSetMissing())
+                    migrateScheduledNotificationIds(store, context);
+            }
+            return store;
+        }
+    }
 
-        String data = UnityNotificationManager.SerializeNotificationIntent(intent);
-        editor.putString("data", data);
+    private static boolean mStoreMigrated = false;
 
-        editor.apply();
+    // Ids of the scheduled notifications, kept in the NotificationStore.
+    static Set<String> getScheduledNotificationIds(Context context)
+    {
+        Set<String> ids = new HashSet<String>();
+        for (int id : getNotificationStore(context).getScheduledIds())
+            ids.add(Integer.toString(id));
+        return ids;
+    }
 
-        // Store IDs
-        SharedPreferences idsPrefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = idsPrefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
+    // Adds and removes ids of the scheduled set in one change, either collection can be null.
+    static void updateScheduledNotificationIds(Context context, Collection<String> added, Collection<String> removed)
+    {
+        getNotificationStore(context).updateScheduled(parseNotificationIds(added), parseNotificationIds(removed));
+    }
+
+    private static List<Integer> parseNotificationIds(Collection<String> ids)
+    {
+        List<Integer> parsed = new ArrayList<Integer>();
+        if (ids == null)
+            return parsed;
+
+        for (String id : ids)
+        {
+            try {
+                parsed.add(Integer.valueOf(id));
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+        return parsed;
+    }
+
+    // Moves the scheduled id set which older versions of the plugin kept in UNITY_STORED_NOTIFICATION_IDS (along with
+    // the content hashes, which are the record versions now) into the store.
+    private static void migrateScheduledNotificationIds(NotificationStore store, Context context)
+    {
+        SharedPreferences prefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
+        store.updateScheduled(parseNotificationIds(prefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>())), null);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            context.deleteSharedPreferences(UNITY_STORED_NOTIFICATION_IDS);
+        else
+            prefs.edit().clear().apply();
+    }
+
+    // Moves records written by older versions of the plugin (one u_notification_data_<id> preference file each) into the store.
+    private static void migrateNotificationRecords(NotificationStore store, Context context)
+    {
+        Set<String> ids = new HashSet<String>(context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE)
+                .getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>()));
+        ids.addAll(context.getSharedPreferences(UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE).getAll().keySet());
+
+        for (String id : ids)
+        {
+            String prefsName = String.format("u_notification_data_%s", id);
+            SharedPreferences prefs = context.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
+            String data = prefs.getString("data", "");
+
+            if (data.length() > 1)
+            {
+                try {
+                    Intent intent = DeserializeNotificationIntent(data, context);
+                    long version = prefs.contains("version") ? prefs.getLong("version", 0L) : computeNotificationHash(intent.getExtras());
+
+                    byte[] plan = null;
+                    String serializedPlan = prefs.getString("plan", null);
+                    if (serializedPlan != null)
+                        plan = Base64.decode(serializedPlan, 0);
+
+                    store.put(Integer.valueOf(id), version, getNotificationFields(intent), plan);
+                } catch (RuntimeException e) {
+                    Log.w("UnityNotifications", "Failed to migrate stored notification " + id + ": " + e.getMessage());
+                }
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                context.deleteSharedPreferences(prefsName);
+            else
+                prefs.edit().clear().apply();
+        }
+    }
+
+    // The extras which make up a stored notification, the version and the tap intent are not part of it.
+    static Map<String, Object> getNotificationFields(Intent intent)
+    {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        Bundle extras = intent.getExtras();
+        if (extras == null)
+            return fields;
+
+        for (String key : extras.keySet())
+        {
+            if (key.equals("version") || key.equals("tapIntent"))
+                continue;
+            fields.put(key, extras.get(key));
+        }
+        return fields;
+    }
+
+    static Intent buildNotificationIntent(Map<String, Object> fields, Context context)
+    {
+        Intent intent = new Intent(context, UnityNotificationManager.class);
+        for (Map.Entry<String, Object> field : fields.entrySet())
+        {
+            Object value = field.getValue();
+            if (value instanceof String)
+                intent.putExtra(field.getKey(), (String)value);
+            else if (value instanceof Integer)
+                intent.putExtra(field.getKey(), (int)(Integer)value);
+            else if (value instanceof Long)
+                intent.putExtra(field.getKey(), (long)(Long)value);
+            else if (value instanceof Boolean)
+                intent.putExtra(field.getKey(), (boolean)(Boolean)value);
+            else if (value instanceof long[])
+                intent.putExtra(field.getKey(), (long[])value);
+        }
+        return intent;
+    }
+
+    // Stores the notification and it's compiled plan, without touching the id set.
+    static void writeNotificationIntentData(Intent intent, Context context)
+    {
+        writeNotificationIntentData(intent, context, computeNotificationHash(intent.getExtras()));
+    }
+
+    static void writeNotificationIntentData(Intent intent, Context context, long version)
+    {
+        NotificationTrace.begin("UnityNotifications.writeNotificationIntentData");
+        try {
+            int id = intent.getIntExtra("id", 0);
+            byte[] plan = NotificationPlan.compile(intent, context).toByteArray();
+            getNotificationStore(context).put(id, version, getNotificationFields(intent), plan);
+        } finally {
+            NotificationTrace.end();
+        }
+    }
+
+    // Loads the stored notification, the returned intent carries the record's "version" extra. Returns null if there is no record.
+    static Intent loadNotificationIntentData(String id, Context context)
+    {
+        NotificationStore store = getNotificationStore(context);
+        int notificationId;
+        try {
+            notificationId = Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        NotificationStore.Record record = store.get(notificationId);
+        Map<String, Object> fields = store.getFields(notificationId);
+        if (record == null || fields == null)
+            return null;
+
+        Intent intent = buildNotificationIntent(fields, context);
+        intent.putExtra("version", record.version);
+        return intent;
+    }
+
+    // Resolves a slim alarm or tap intent (id and version) into the full notification intent.
+    // Returns null if the notification is no longer stored or was replaced by a different version.
+    static Intent resolveNotificationIntent(Intent intent, Context context)
+    {
+        if (!intent.hasExtra("version") || intent.hasExtra("channelID"))
+            return intent;
+
+        int id = intent.getIntExtra("id", -1);
+        Intent data_intent = loadNotificationIntentData(Integer.toString(id), context);
+        if (data_intent == null)
+            return null;
+
+        // Records stored before versions were introduced don't have one.
+        if (data_intent.hasExtra("version") && data_intent.getLongExtra("version", 0L) != intent.getLongExtra("version", 0L))
+            return null;
+
+        return data_intent;
+    }
+
+    // Called when a one-time notification was delivered. It's no longer scheduled but it's record is kept,
+    // so it can still be loaded when the notification is tapped.
+    static void markNotificationDelivered(int id, Context context)
+    {
+        long deliveredAt = System.currentTimeMillis();
+        synchronized (mScheduleLock)
+        {
+            cancelPendingNotificationIntentInternal(id, context);
+        }
+        context.getSharedPreferences(UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE).edit()
+                .putLong(Integer.toString(id), deliveredAt).apply();
+        NotificationExpirySweeper.trackDelivered(id, deliveredAt);
+    }
+
+    // Cold deliveries (see postColdNotification) only update the store and the delivered time, the indexes and the exact
+    // alarm of delivered notifications that weren't scheduled again are cleaned up here, when the manager is created.
+    static void finishColdDeliveries(Context context)
+    {
+        NotificationStore store = getNotificationStore(context);
+        Set<String> delivered = new HashSet<String>();
+        for (String id : context.getSharedPreferences(UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE).getAll().keySet())
+        {
+            try {
+                int notificationId = Integer.parseInt(id);
+                if (store.isScheduled(notificationId))
+                    continue;
+
+                NotificationCollapseKeyIndex.remove(notificationId, context);
+                NotificationAlarmPlanner.releaseExactAlarm(context, notificationId);
+                delivered.add(id);
+            } catch (NumberFormatException ignored) {
+                ;
+            }
+        }
+        NotificationScheduleIndex.remove(context, delivered);
+    }
+
+    // Removes the record of a delivered notification unless it was scheduled again.
+    static void deleteDeliveredNotification(String id, Context context)
+    {
+        context.getSharedPreferences(UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE).edit().remove(id).apply();
+
+        if (getNotificationStore(context).isScheduled(Integer.valueOf(id)))
+            return;
 
-        Set<String> idsSetCopy = new HashSet<String>(idsSet);
-        idsSetCopy.add(notification_id);
+        deleteNotificationIntentData(id, context);
+        NotificationPayloadStore.deletePayload(context, Integer.valueOf(id));
+    }
 
-        SharedPreferences.Editor idsEditor = idsPrefs.edit();
-        idsEditor.clear();
-        idsEditor.putStringSet(SHARED_PREFS_NOTIFICATION_IDS, idsSetCopy);
-        idsEditor.apply();
+    // Removes the records of the specified notifications (used by the NotificationExpirySweeper), the id set is updated in one change.
+    static void purgeNotificationRecords(Context context, Set<String> ids)
+    {
+        if (ids.isEmpty())
+            return;
 
-        UnityNotificationManager.LoadNotificationIntents(context);
+        synchronized (mScheduleLock)
+        {
+            for (String id : ids)
+            {
+                int notificationId = Integer.valueOf(id);
+                cancelNotificationAlarm(notificationId, context);
+                NotificationCollapseKeyIndex.remove(notificationId, context);
+                deleteNotificationIntentData(id, context);
+                NotificationPayloadStore.deletePayload(context, notificationId);
+            }
 
+            NotificationScheduleIndex.remove(context, ids);
+            updateScheduledNotificationIds(context, null, ids);
+        }
     }
+
     public static void deleteExpiredNotificationIntent(int id, Context context)
     {
         String id_str = Integer.toString(id);
@@ -184,33 +463,26 @@ public class UnityNotificationManager extends BroadcastReceiver
 
     public static void deleteExpiredNotificationIntent(String id, Context context)
     {
-        SharedPreferences idsPrefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = idsPrefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
-
         // if (BuildConfig.DEBUG) {
         //     Log.w("UnityNotifications", String.format("\n Deleting expired notification intent : %s ", id));
         // }
 
         cancelPendingNotificationIntentInternal(Integer.valueOf(id), context);
+        deleteNotificationIntentData(id, context);
+    }
 
-        Set<String> idsSetCopy = new HashSet<String>(idsSet);
-        idsSetCopy.remove(id);
-
-        SharedPreferences.Editor editor = idsPrefs.edit();
-        editor.putStringSet(SHARED_PREFS_NOTIFICATION_IDS, idsSetCopy);
-        editor.apply();
-
-        SharedPreferences notificationPrefs =
-                context.getSharedPreferences(String.format("u_notification_data_%s", id), Context.MODE_PRIVATE);
-        notificationPrefs.edit().clear().apply();
-
+    static void deleteNotificationIntentData(String id, Context context)
+    {
+        try {
+            getNotificationStore(context).remove(Integer.parseInt(id));
+        } catch (NumberFormatException ignored) {
+            ;
+        }
     }
 
     public static List<Intent> LoadNotificationIntents(Context context)
     {
-        SharedPreferences idsPrefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = idsPrefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
-        Set<String> idsSetCopy = new HashSet<String>(idsSet);
+        Set<String> idsSetCopy = getScheduledNotificationIds(context);
 
         List<Intent> intent_data_list = new ArrayList<Intent> ();
 
@@ -221,13 +493,10 @@ public class UnityNotificationManager extends BroadcastReceiver
         Set<String> idsMarkedForRemoval = new HashSet<String>();
 
         for (String id : idsSetCopy) {
-            SharedPreferences notificationPrefs =
-                    context.getSharedPreferences(String.format("u_notification_data_%s", id), Context.MODE_PRIVATE);
-            String serializedIntentData = notificationPrefs.getString("data","");
+            Intent intent = UnityNotificationManager.loadNotificationIntentData(id, context);
 
-            if (serializedIntentData.length() > 1)
+            if (intent != null)
             {
-                Intent intent = UnityNotificationManager.DeserializeNotificationIntent(serializedIntentData, context);
                 intent_data_list.add(intent);
             }
             else
@@ -244,8 +513,13 @@ public class UnityNotificationManager extends BroadcastReceiver
             // }
         }
 
-        for (String id : idsMarkedForRemoval) {
-            UnityNotificationManager.deleteExpiredNotificationIntent(id, context);
+        synchronized (mScheduleLock)
+        {
+            // Ids which are being scheduled get their record right after being added.
+            for (String id : idsMarkedForRemoval) {
+                if (UnityNotificationManager.loadNotificationIntentData(id, context) == null)
+                    UnityNotificationManager.deleteExpiredNotificationIntent(id, context);
+            }
         }
 
         return intent_data_list;
@@ -256,6 +530,18 @@ public class UnityNotificationManager extends BroadcastReceiver
         return (NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE);
     }
 
+    // The importance used for planning alarms, on Android 8.0 and later it's cached (see UnityNotificationManagerOreo).
+    static int getChannelImportance(String id, Context context)
+    {
+        if (id == null)
+            return NotificationManager.IMPORTANCE_DEFAULT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return UnityNotificationManagerOreo.getChannelImportance(id, context);
+
+        return context.getSharedPreferences(String.format("unity_notification_channel_%s", id), Context.MODE_PRIVATE)
+                .getInt("importance", NotificationManager.IMPORTANCE_DEFAULT);
+    }
+
     public static  NotificationChannelWrapper getNotificationChannel(String id, Context context)
     {
 
@@ -310,9 +596,9 @@ public class UnityNotificationManager extends BroadcastReceiver
         super();
         mContext = context;
         mActivity = activity;
+        beginProcessWork();
 
         try {
-
             ApplicationInfo ai = activity.getPackageManager().getApplicationInfo(activity.getPackageName(), PackageManager.GET_META_DATA);
             Bundle bundle = ai.metaData;
 
@@ -334,6 +620,20 @@ public class UnityNotificationManager extends BroadcastReceiver
             if (mOpenActivity == null)
                 mOpenActivity = activity.getClass();
 
+            // The tap intent is created when the notification is delivered, possibly in a process where the manager doesn't exist.
+            SharedPreferences settings = context.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE);
+            if (!mOpenActivity.getName().equals(settings.getString(OPEN_ACTIVITY_CLASS, null)))
+                settings.edit().putString(OPEN_ACTIVITY_CLASS, mOpenActivity.getName()).apply();
+
+            // The sweep alarm is only gone if all alarms of the app were wiped, otherwise the per-id check is left to the
+            // next sweep, which runs off the main thread. It's armed again below.
+            if (!NotificationExpirySweeper.isSweepScheduled(context))
+                mRepairCounts = reconcileScheduledNotifications(context);
+            finishColdDeliveries(context);
+            NotificationExpirySweeper.scheduleSweep(context);
+            scheduleDueParkedNotifications(context);
+            NotificationPayloadStore.prunePayloads(context, getScheduledNotificationIds(context));
+
 
         } catch (PackageManager.NameNotFoundException e) {
             Log.e("UnityNotifications", "Failed to load meta-data, NameNotFound: " + e.getMessage());
@@ -402,280 +702,936 @@ public class UnityNotificationManager extends BroadcastReceiver
 
     public static Intent prepareNotificationIntent(Intent intent, Context context, PendingIntent pendingIntent)
     {
+        return prepareNotificationIntent(intent, context, pendingIntent, null);
+    }
+
+    // replacedId is removed from the id set in the same change, it's used when a notification replaces another one with the same collapse key.
+    static Intent prepareNotificationIntent(Intent intent, Context context, PendingIntent pendingIntent, String replacedId)
+    {
+        NotificationTrace.begin("UnityNotifications.prepareNotificationIntent");
+        try {
+            Intent data_intent = (Intent)intent.clone();
+            int id = data_intent.getIntExtra("id", 0);
 
-        Intent data_intent = (Intent)intent.clone();
-        int id = data_intent.getIntExtra("id", 0);
+            // Ids whose alarm is gone are kept, reconcileScheduledNotifications arms them again or purges them.
+            Set<String> idsSetCopy = getScheduledNotificationIds(context);
+            if (replacedId != null)
+                idsSetCopy.remove(replacedId);
+            idsSetCopy.remove(Integer.toString(id));
 
-        SharedPreferences prefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = prefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
+            attachTapIntent(data_intent, pendingIntent);
 
-        Set<String> idsSetCopy = new HashSet<String>(idsSet);
-        Set<String> validIdsSet = new HashSet<String>();
+            // if (BuildConfig.DEBUG) {
+            //     Log.w("UnityNotifications", "Currently scheduled : " + Integer.toString(idsSetCopy.size()));
+            // }
 
-        data_intent.putExtra("tapIntent", pendingIntent);
-        for(String sId : idsSetCopy )
-        {
-            PendingIntent broadcast = PendingIntent.getBroadcast(context, Integer.valueOf(sId), intent, PendingIntent.FLAG_NO_CREATE);
+            if (android.os.Build.MANUFACTURER.equals("samsung") && idsSetCopy.size() >= 499)
+            {
+                // There seems to be a limit of 500 concurrently scheduled alarms on Samsung devices.
+                // Attempting to schedule more than that might cause the app to crash.
+                Log.w("UnityNotifications", "Attempting to schedule more than 500 notifications. There is a limit of 500 concurrently scheduled Alarms on Samsung devices" +
+                        " either wait for the currently scheduled ones to be triggered or cancel them if you wish to schedule additional notifications.");
+                data_intent = null;
 
-            if (broadcast != null) {
-                validIdsSet.add(sId);
             }
-        }
-
-        // if (BuildConfig.DEBUG) {
-        //     Log.w("UnityNotifications", "Currently scheduled : " + Integer.toString(validIdsSet.size()));
-        // }
 
-        if (android.os.Build.MANUFACTURER.equals("samsung") && validIdsSet.size() >= 499)
-        {
-            // There seems to be a limit of 500 concurrently scheduled alarms on Samsung devices.
-            // Attempting to schedule more than that might cause the app to crash.
-            Log.w("UnityNotifications", "Attempting to schedule more than 500 notifications. There is a limit of 500 concurrently scheduled Alarms on Samsung devices" +
-                    " either wait for the currently scheduled ones to be triggered or cancel them if you wish to schedule additional notifications.");
-            data_intent = null;
+            Set<String> droppedIds = new HashSet<String>();
+            if (replacedId != null)
+                droppedIds.add(replacedId);
 
-        }
-        else {
-            validIdsSet.add(Integer.toString(id));
-            data_intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            updateScheduledNotificationIds(context, data_intent != null ? Collections.singleton(Integer.toString(id)) : null, droppedIds);
+            NotificationScheduleIndex.remove(context, droppedIds);
+            if (data_intent != null)
+                NotificationScheduleIndex.put(context, intent);
 
+            return data_intent;
+        } finally {
+            NotificationTrace.end();
         }
+    }
 
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.clear();
-        editor.putStringSet(SHARED_PREFS_NOTIFICATION_IDS, validIdsSet);
-        editor.apply();
-
-        return data_intent;
+    private static void attachTapIntent(Intent data_intent, PendingIntent pendingIntent)
+    {
+        if (pendingIntent == null)
+            return;
 
+        data_intent.putExtra("tapIntent", pendingIntent);
+        data_intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
     }
 
-
-    public void scheduleNotificationIntent(Intent data_intent_source)
+    // Hash of everything that affects how and when a notification is shown. Keys are visited in sorted order
+    // so the result does not depend on the Bundle's internal ordering, "tapIntent" and "version" are skipped as they're derived.
+    // Large payloads only contribute their own hash.
+    public static long computeNotificationHash(Bundle extras)
     {
+        long hash = NotificationHash.OFFSET_BASIS;
+        if (extras == null)
+            return hash;
 
-        Instant starts = null;
-        // if (BuildConfig.DEBUG) {
-        //     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-        //         starts = Instant.now();
-        //     }
-        // }
+        for (String key : new TreeSet<String>(extras.keySet()))
+        {
+            if (key.equals("tapIntent") || key.equals("version"))
+                continue;
 
-        String d = UnityNotificationManager.SerializeNotificationIntent(data_intent_source);
-        Intent data_intent = UnityNotificationManager.DeserializeNotificationIntent(d, mContext);
+            Object value = extras.get(key);
+            String valueStr;
+            if (key.equals("data") || key.equals("dataRef"))
+            {
+                // Payloads stored inline and out of line hash the same way.
+                if (value == null)
+                    continue;
+                key = "data";
+                valueStr = "#" + (extras.containsKey("dataRef")
+                        ? NotificationPayloadStore.getReferenceHash(String.valueOf(value))
+                        : NotificationPayloadStore.hashPayload(String.valueOf(value)));
+            }
+            else if (value instanceof long[])
+                valueStr = Arrays.toString((long[])value);
+            else if (value instanceof int[])
+                valueStr = Arrays.toString((int[])value);
+            else if (value instanceof Object[])
+                valueStr = Arrays.toString((Object[])value);
+            else
+                valueStr = String.valueOf(value);
 
-        int id = data_intent.getIntExtra("id", 0);
+            hash = NotificationHash.hash(hash, key + "=" + valueStr + ";");
+        }
+        return hash;
+    }
 
-        Intent openAppIntent = UnityNotificationManager.buildOpenAppIntent(data_intent, mContext, mOpenActivity);
-        PendingIntent pendingIntent = PendingIntent.getActivity(mContext, id, openAppIntent, 0);
-        Intent intent = prepareNotificationIntent(data_intent, mContext, pendingIntent);
 
-        if (intent != null) {
+    public void scheduleNotificationIntent(Intent data_intent_source)
+    {
+        NotificationTrace.begin("UnityNotifications.scheduleNotificationIntent");
+        try {
+            Instant starts = null;
+            // if (BuildConfig.DEBUG) {
+            //     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            //         starts = Instant.now();
+            //     }
+            // }
 
-            if (this.reschedule_on_restart) {
-                UnityNotificationManager.SaveNotificationIntent(data_intent, mContext);
-            }
+            String d = UnityNotificationManager.SerializeNotificationIntent(data_intent_source);
+            Intent data_intent = UnityNotificationManager.DeserializeNotificationIntent(d, mContext);
 
-            PendingIntent broadcast = PendingIntent.getBroadcast(mContext, id, intent, PendingIntent.FLAG_UPDATE_CURRENT);
-            UnityNotificationManager.scheduleNotificationIntentAlarm(intent, mContext, broadcast);
-        }
+            // Scheduled now, it's no longer parked. Neither is the notification it replaced by collapse key.
+            NotificationSegments.remove(mContext, data_intent.getIntExtra("id", 0));
+            int replacedId = scheduleNotification(data_intent, mContext);
+            if (replacedId != -1)
+                NotificationSegments.remove(mContext, replacedId);
 
-        // if (BuildConfig.DEBUG) {
-        //     if (starts != null) {
-        //         Instant ends = null;
-        //         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-        //             ends = Instant.now();
-        //             Log.w("UnityNotifications", Long.toString(Duration.between(starts, ends).toMillis()));
-        //         }
-        //     }
-        // }
+            // if (BuildConfig.DEBUG) {
+            //     if (starts != null) {
+            //         Instant ends = null;
+            //         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            //             ends = Instant.now();
+            //             Log.w("UnityNotifications", Long.toString(Duration.between(starts, ends).toMillis()));
+            //         }
+            //     }
+            // }
+        } finally {
+            NotificationTrace.end();
+        }
     }
 
-    public static Intent buildOpenAppIntent(Intent data_intent, Context context, Class c)
+    // The alarm intent only identifies the notification, it's contents are loaded from storage when the alarm fires.
+    static Intent buildNotificationAlarmIntent(Context context, int id, long version)
     {
-        Intent openAppIntent = new Intent(context, c);
-        openAppIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-        openAppIntent.putExtras(data_intent);
-
-        return openAppIntent;
+        Intent intent = new Intent(context, UnityNotificationManager.class);
+        intent.putExtra("id", id);
+        intent.putExtra("version", version);
+        return intent;
     }
 
-    public static void scheduleNotificationIntentAlarm(Intent intent, Context context, PendingIntent broadcast)
+    static void armNotificationAlarm(Intent data_intent, Context context, long version)
     {
-        long repeatInterval = intent.getLongExtra("repeatInterval", 0L);
-        long fireTime = intent.getLongExtra("fireTime", 0L);
-        int id = intent.getIntExtra("id", 0);
-
-        AlarmManager alarmManager = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        int id = data_intent.getIntExtra("id", 0);
+        Intent intent = buildNotificationAlarmIntent(context, id, version);
+        PendingIntent broadcast = PendingIntent.getBroadcast(context, id, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        UnityNotificationManager.scheduleNotificationIntentAlarm(data_intent, context, broadcast);
+    }
 
-        Date fireTimeDt = new Date(fireTime);
-        Date currentDt = Calendar.getInstance().getTime();
+    // Compares the scheduled notifications with the alarms that are actually registered. Force stopping the app and some
+    // task killers wipe all alarms of the app, afterwards only a reboot used to arm them again. Notifications that are still
+    // due are armed again, one-time ones whose time passed and ids without a record are purged in one change. Runs when
+    // the manager is created if the sweep alarm is gone too, and with every sweep, as alarms of single notifications can
+    // be lost as well (the system dropped them, they fired while the record was being replaced). Every id is checked with
+    // a call to the system. Returns {rearmed, purged}.
+    static int[] reconcileScheduledNotifications(Context context)
+    {
+        NotificationTrace.begin("UnityNotifications.reconcileScheduledNotifications");
+        try {
+            long now = System.currentTimeMillis();
+            Set<String> purged = new HashSet<String>();
+            int rearmed = 0;
 
-        if (repeatInterval <= 0)
-        {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
-            {
-                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, fireTime, broadcast);
-            }
-            else
+            // Ids being scheduled are in the set before their alarm is armed.
+            synchronized (mScheduleLock)
             {
-                alarmManager.set(AlarmManager.RTC_WAKEUP, fireTime, broadcast);
+                for (String idStr : getScheduledNotificationIds(context))
+                {
+                    int id;
+                    try {
+                        id = Integer.parseInt(idStr);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+
+                    if (isNotificationAlarmRegistered(id, context))
+                        continue;
+
+                    Intent data_intent = loadNotificationIntentData(idStr, context);
+                    boolean isRepeatable = data_intent != null && data_intent.getLongExtra("repeatInterval", 0L) > 0;
+                    if (data_intent == null || (!isRepeatable && data_intent.getLongExtra("fireTime", 0L) <= now))
+                    {
+                        purged.add(idStr);
+                        continue;
+                    }
+
+                    armNotificationAlarm(data_intent, context, data_intent.getLongExtra("version", 0L));
+                    rearmed++;
+                }
+
+                purgeNotificationRecords(context, purged);
             }
-        }
-        else
-        {
-            alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, fireTime, repeatInterval, broadcast);
+
+            if (rearmed > 0 || !purged.isEmpty())
+                Log.w("UnityNotifications", String.format("Armed %d notifications again whose alarms were gone, purged %d missed ones.", rearmed, purged.size()));
+
+            return new int[] { rearmed, purged.size() };
+        } finally {
+            NotificationTrace.end();
         }
     }
 
-    protected static Notification.Builder buildNotification(Intent intent, Context context)
+    // Arms a notification loaded by LoadNotificationIntents again after a reboot, or deletes it if it's one-time fire time
+    // passed. Nothing is done if it was canceled or scheduled again since it was loaded.
+    static void restoreScheduledNotification(Intent data_intent, Context context, long now)
     {
-        String channelID = intent.getStringExtra("channelID");
-        String textTitle = intent.getStringExtra("textTitle");
-        String textContent = intent.getStringExtra("textContent");
-        boolean autoCancel = intent.getBooleanExtra("autoCancel", true);
-        long fireTime = intent.getLongExtra("fireTime", -1);
-        boolean usesChronometer = intent.getBooleanExtra("usesChronometer", false);
-        int lockscreenVisibility = intent.getIntExtra("lockscreenVisibility", 0);
-        int style = intent.getIntExtra("style", 0);
-        int color = intent.getIntExtra("color", 0);
-        int number = intent.getIntExtra("number", 0);
+        int id = data_intent.getIntExtra("id", -1);
+        long version = data_intent.getLongExtra("version", computeNotificationHash(data_intent.getExtras()));
+        boolean isRepeatable = data_intent.getLongExtra("repeatInterval", 0L) > 0;
 
-        boolean showTimestamp = intent.getBooleanExtra("showTimestamp", false);
-        long timestampValue = intent.getLongExtra("timestamp", -1);
+        synchronized (mScheduleLock)
+        {
+            NotificationStore store = getNotificationStore(context);
+            if (!store.isScheduled(id) || (data_intent.hasExtra("version") && !store.isStoredVersion(id, version)))
+                return;
 
-        String smallIconStr = intent.getStringExtra("smallIconStr");
-        String largeIconStr = intent.getStringExtra("largeIconStr");
+            if (data_intent.getLongExtra("fireTime", 0L) <= now && !isRepeatable)
+            {
+                deleteExpiredNotificationIntent(id, context);
+                return;
+            }
 
-        int smallIconId = UnityNotificationManager.findResourceidInContextByName(smallIconStr, context);
-        int largeIconId = UnityNotificationManager.findResourceidInContextByName(largeIconStr, context);
+            Intent intent = prepareNotificationIntent(data_intent, context, null);
+            if (intent == null)
+                return;
 
-        if (smallIconId == 0) {
-            smallIconId = context.getApplicationInfo().icon;
+            armNotificationAlarm(intent, context, version);
+            NotificationTrace.beginAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
         }
+    }
 
-        PendingIntent tapIntent = (PendingIntent)intent.getParcelableExtra("tapIntent");
+    // Returns {rearmed, purged} of the reconciliation done when the manager was created, {0, 0} if the alarms weren't
+    // wiped and it was skipped.
+    public int[] getRepairCounts()
+    {
+        return mRepairCounts;
+    }
 
-        Notification.Builder notificationBuilder;
+    // Stores the notification and arms it's alarm. Returns the id of the notification holding the same collapse key which
+    // was replaced, -1 if there was none. That notification may be parked, the caller removes it from the segments
+    // (see NotificationSegments for the lock order). A parked notification being scheduled holds it's key already.
+    static int scheduleNotification(Intent data_intent, Context context)
+    {
+        NotificationPayloadStore.moveOutOfLine(context, data_intent);
 
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
-        {
-            notificationBuilder = new Notification.Builder(context);
-        }
-        else
+        synchronized (mScheduleLock)
         {
-            notificationBuilder = new Notification.Builder(context, channelID);
-        }
+            int id = data_intent.getIntExtra("id", 0);
 
-        if (largeIconId != 0)
-        {
-            notificationBuilder.setLargeIcon(BitmapFactory.decodeResource(context.getResources(), largeIconId));
-        }
+            // A notification with the same collapse key replaces the previously scheduled one.
+            String collapseKey = data_intent.getStringExtra("collapseKey");
+            int replacedId = NotificationCollapseKeyIndex.getNotificationId(collapseKey, context);
+            if (replacedId == id)
+                replacedId = -1;
 
-        notificationBuilder.setContentTitle(textTitle)
-                .setContentText(textContent)
-                .setSmallIcon(smallIconId)
-                .setContentIntent(tapIntent)
-                .setAutoCancel(autoCancel);
+            Intent intent = prepareNotificationIntent(data_intent, context, null, replacedId != -1 ? Integer.toString(replacedId) : null);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-        {
-            if (color != 0)
-            {
-                notificationBuilder.setColor(color);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-                {
-                    notificationBuilder.setColorized(true);
-                }
-            }
-        }
+            if (intent != null) {
 
-        if (number >= 0)
-            notificationBuilder.setNumber(number);
+                if (replacedId != -1) {
+                    cancelNotificationAlarm(replacedId, context);
+                    deleteNotificationIntentData(Integer.toString(replacedId), context);
+                    NotificationPayloadStore.deletePayload(context, replacedId);
+                }
 
-        if (style == 2)
-            notificationBuilder.setStyle(new Notification.BigTextStyle().bigText(textContent));
+                if (collapseKey != null && collapseKey.length() > 0)
+                    NotificationCollapseKeyIndex.put(collapseKey, id, context);
+                else
+                    NotificationCollapseKeyIndex.remove(id, context);
 
-        notificationBuilder.setWhen(timestampValue);
+                // The notification is always stored, the alarm and tap intents only carry it's id and version.
+                long version = computeNotificationHash(data_intent.getExtras());
+                UnityNotificationManager.writeNotificationIntentData(data_intent, context, version);
+                NotificationEventLog.record(context, NotificationEventLog.EVENT_SCHEDULED, data_intent, getRequestedPrecision(data_intent));
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-        {
-            notificationBuilder.setShowWhen(showTimestamp);
+                armNotificationAlarm(intent, context, version);
+                NotificationTrace.beginAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+                return replacedId;
+            }
+            return -1;
         }
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1)
-        {
-            notificationBuilder.setUsesChronometer(usesChronometer);
-        }
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
-        {
-            NotificationChannelWrapper fakeNotificationChannel = getNotificationChannel(channelID, context);
+    // Schedules many notifications at once. One-time notifications firing beyond NotificationSegments.HORIZON are parked
+    // in per-day segments instead, without a record or an alarm, and scheduled once their day comes close
+    // (see scheduleDueParkedNotifications). Collapse keys of parked notifications are resolved when they're parked, like
+    // for scheduled ones. Returns the number of parked notifications.
+    public int scheduleNotificationIntents(List<Intent> intents)
+    {
+        long now = System.currentTimeMillis();
+        Map<Integer, Intent> parked = new LinkedHashMap<Integer, Intent>();
+        Set<Integer> replacedIds = new HashSet<Integer>();
 
+        for (Intent source : intents)
+        {
+            String d = UnityNotificationManager.SerializeNotificationIntent(source);
+            Intent data_intent = UnityNotificationManager.DeserializeNotificationIntent(d, mContext);
+            int id = data_intent.getIntExtra("id", 0);
 
-            if (fakeNotificationChannel.vibrationPattern != null && fakeNotificationChannel.vibrationPattern.length > 0)
-            {
-                notificationBuilder.setDefaults(Notification.DEFAULT_LIGHTS | Notification.DEFAULT_SOUND);
-                notificationBuilder.setVibrate(fakeNotificationChannel.vibrationPattern);
-            }
-            else
+            if (!NotificationSegments.isParkable(data_intent, now))
             {
-                notificationBuilder.setDefaults(Notification.DEFAULT_ALL);
+                NotificationSegments.remove(mContext, id);
+                int replacedId = scheduleNotification(data_intent, mContext);
+                if (replacedId != -1 && parked.remove(replacedId) == null)
+                    NotificationSegments.remove(mContext, replacedId);
+                continue;
             }
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            // A parked notification replaces the one scheduled under the same id, and the one holding it's collapse key.
+            // The notification holding the key may be parked itself, it's removed from the segments below.
+            synchronized (mScheduleLock)
             {
-                notificationBuilder.setVisibility((int)fakeNotificationChannel.lockscreenVisibility);
-            }
+                NotificationStore store = getNotificationStore(mContext);
+                if (store.isScheduled(id))
+                {
+                    deleteExpiredNotificationIntent(id, mContext);
+                    NotificationPayloadStore.deletePayload(mContext, id);
+                }
 
-            // Need to convert Oreo channel importance to pre-Oreo priority.
-            int priority;
-            switch (fakeNotificationChannel.importance)
-            {
-                case NotificationManager.IMPORTANCE_HIGH:
-                    priority = Notification.PRIORITY_MAX;
-                    break;
-                case NotificationManager.IMPORTANCE_DEFAULT:
-                    priority = Notification.PRIORITY_DEFAULT;
-                    break;
-                case NotificationManager.IMPORTANCE_LOW:
-                    priority = Notification.PRIORITY_LOW;
-                    break;
-                case NotificationManager.IMPORTANCE_NONE:
-                    priority = Notification.PRIORITY_MIN;
-                    break;
-                default:
-                    priority = Notification.PRIORITY_DEFAULT;
+                String collapseKey = data_intent.getStringExtra("collapseKey");
+                int replacedId = NotificationCollapseKeyIndex.getNotificationId(collapseKey, mContext);
+                if (replacedId != -1 && replacedId != id)
+                {
+                    if (store.isScheduled(replacedId))
+                    {
+                        deleteExpiredNotificationIntent(replacedId, mContext);
+                        NotificationPayloadStore.deletePayload(mContext, replacedId);
+                    }
+                    else if (parked.remove(replacedId) == null)
+                        replacedIds.add(replacedId);
+                }
+
+                if (collapseKey != null && collapseKey.length() > 0)
+                    NotificationCollapseKeyIndex.put(collapseKey, id, mContext);
+                else
+                    NotificationCollapseKeyIndex.remove(id, mContext);
             }
-            notificationBuilder.setPriority(priority);
+            replacedIds.remove(id);
+            parked.remove(id); // parked again keeps the order of the latest one
+            parked.put(id, data_intent);
         }
 
-        return notificationBuilder;
+        for (int id : replacedIds)
+            NotificationSegments.remove(mContext, id);
+        int count = NotificationSegments.park(mContext, new ArrayList<Intent>(parked.values()));
+        return count;
     }
 
-    public static void sendNotification(Intent intent, Context context) {
-
-        Notification.Builder notificationBuilder = UnityNotificationManager.buildNotification(intent, context);
-        int id = intent.getIntExtra("id", -1);
+    // Schedules the parked notifications whose segment came within the horizon. Runs when the manager is created, with
+    // every expiry sweep and on boot. Returns the number of scheduled notifications.
+    static int scheduleDueParkedNotifications(final Context context)
+    {
+        return NotificationSegments.takeDue(context, System.currentTimeMillis(), new NotificationSegments.DueHandler() {
+            @Override
+            boolean schedule(List<Intent> due)
+            {
+                for (Intent data_intent : due)
+                    scheduleNotification(data_intent, context);
 
-        UnityNotificationManager.notify(context, id, notificationBuilder, intent);
+                // The alarms are armed, the segment is only deleted once the records are committed as well.
+                return NotificationStore.flushInstance();
+            }
+        });
     }
 
-    protected static void notify(Context context, int id, Notification.Builder notificationBuilder, Intent intent)
+    // Called when the time zone or the clock changed. Notifications anchored to a local time of day are moved to that
+    // time in the current time zone, only the ones that moved are stored and armed again, with their version unchanged.
+    // Parked notifications are moved within their segments. Returns the number of notifications that moved.
+    static int rebaseLocalTimeNotifications(Context context)
     {
-        getNotificationManager(context).notify(id, notificationBuilder.build());
+        int count = 0;
 
-        try {
-            mNotificationCallback.onSentNotification(intent);
-        }
-        catch (RuntimeException ex)
+        synchronized (mScheduleLock)
         {
-            Log.w("UnityNotifications", "Can not invoke OnNotificationReceived event when the app is not running!");
+            List<NotificationScheduleIndex.Entry> moved = NotificationScheduleIndex.rebaseLocalTimes(context);
+            for (NotificationScheduleIndex.Entry entry : moved)
+            {
+                Intent data_intent = loadNotificationIntentData(Integer.toString(entry.id), context);
+                if (data_intent == null)
+                    continue;
+
+                long version = data_intent.getLongExtra("version", 0L);
+                data_intent.removeExtra("version");
+
+                // The shown timestamp moves along unless it's a custom one.
+                if (data_intent.getLongExtra("timestamp", -1L) == data_intent.getLongExtra("fireTime", 0L))
+                    data_intent.putExtra("timestamp", entry.fireTime);
+                data_intent.putExtra("fireTime", entry.fireTime);
+
+                writeNotificationIntentData(data_intent, context, version);
+                armNotificationAlarm(data_intent, context, version);
+                count++;
+            }
+        }
+
+        count += NotificationSegments.rebaseLocalTimes(context);
+
+        // All records are written in one commit.
+        NotificationStore.flushInstance();
+        return count;
+    }
+
+    // Makes the set of scheduled notifications match desired_intents. Notifications whose content hash didn't change
+    // and whose alarm is still registered are left untouched, ids which are no longer desired are canceled and only
+    // new or changed notifications are (re)scheduled. The id set is updated in one change. Desired one-time notifications
+    // firing beyond NotificationSegments.HORIZON are parked like in scheduleNotificationIntents, the segments are made to
+    // match them (see NotificationSegments.sync), parked notifications which aren't desired are removed. Of desired
+    // notifications sharing a collapse key only the last one is kept, a notification holding the key which isn't desired
+    // is canceled. Returns {added, updated, removed, unchanged}.
+    public int[] syncScheduledNotificationIntents(List<Intent> desired_intents)
+    {
+        long now = System.currentTimeMillis();
+        desired_intents = dropCollapsedIntents(desired_intents);
+
+        List<Intent> scheduled = new ArrayList<Intent>();
+        List<Intent> parked = new ArrayList<Intent>();
+        Set<String> desiredIds = new HashSet<String>();
+        for (Intent desired : desired_intents)
+        {
+            desiredIds.add(Integer.toString(desired.getIntExtra("id", 0)));
+            if (!NotificationSegments.isParkable(desired, now))
+            {
+                scheduled.add(desired);
+                continue;
+            }
+
+            // Parked the way scheduleNotificationIntents parks them, so the versions match.
+            String d = UnityNotificationManager.SerializeNotificationIntent(desired);
+            parked.add(UnityNotificationManager.DeserializeNotificationIntent(d, mContext));
+        }
+
+        // The segments are locked before the schedule lock.
+        Map<Integer, Long> parkedVersions = NotificationSegments.sync(mContext, parked);
+
+        synchronized (mScheduleLock)
+        {
+            NotificationStore store = getNotificationStore(mContext);
+            Set<String> currentIds = getScheduledNotificationIds(mContext);
+            Set<String> syncedIds = new HashSet<String>();
+            Set<String> removedIds = new HashSet<String>();
+
+            int added = 0, updated = 0, removed = 0, unchanged = 0;
+
+            for (Intent data_intent : parked)
+            {
+                int id = data_intent.getIntExtra("id", 0);
+                String idStr = Integer.toString(id);
+                Long parkedVersion = parkedVersions.get(id);
+
+                if (currentIds.contains(idStr) && removedIds.add(idStr))
+                {
+                    // Scheduled before, parked now.
+                    cancelNotificationAlarm(id, mContext);
+                    NotificationScheduleIndex.remove(mContext, id);
+                    deleteNotificationIntentData(idStr, mContext);
+                    NotificationPayloadStore.deletePayload(mContext, id);
+                    updated++;
+                }
+                else if (parkedVersion != null && parkedVersion == computeNotificationHash(data_intent.getExtras()))
+                    unchanged++;
+                else if (parkedVersion != null)
+                    updated++;
+                else
+                    added++;
+
+                String collapseKey = data_intent.getStringExtra("collapseKey");
+                if (collapseKey != null && collapseKey.length() > 0)
+                    NotificationCollapseKeyIndex.put(collapseKey, id, mContext);
+                else
+                    NotificationCollapseKeyIndex.remove(id, mContext);
+            }
+
+            for (Intent desired : scheduled)
+            {
+                int id = desired.getIntExtra("id", 0);
+                String idStr = Integer.toString(id);
+                long hash = computeNotificationHash(desired.getExtras());
+
+                boolean isScheduled = currentIds.contains(idStr);
+                if (isScheduled && store.isStoredVersion(id, hash)
+                        && isNotificationAlarmRegistered(id, mContext))
+                {
+                    syncedIds.add(idStr);
+                    unchanged++;
+                    continue;
+                }
+
+                if (android.os.Build.MANUFACTURER.equals("samsung") && syncedIds.size() >= 499)
+                {
+                    Log.w("UnityNotifications", "Attempting to schedule more than 500 notifications. There is a limit of 500 concurrently scheduled Alarms on Samsung devices," +
+                            " notification " + idStr + " will not be scheduled.");
+                    continue;
+                }
+
+                String d = UnityNotificationManager.SerializeNotificationIntent(desired);
+                Intent data_intent = UnityNotificationManager.DeserializeNotificationIntent(d, mContext);
+                NotificationPayloadStore.moveOutOfLine(mContext, data_intent);
+
+                UnityNotificationManager.writeNotificationIntentData(data_intent, mContext, hash);
+                NotificationEventLog.record(mContext, NotificationEventLog.EVENT_SCHEDULED, data_intent, getRequestedPrecision(data_intent));
+
+                String collapseKey = data_intent.getStringExtra("collapseKey");
+                if (collapseKey != null && collapseKey.length() > 0)
+                {
+                    // Like in scheduleNotification, the notification holding the key is replaced.
+                    int replacedId = NotificationCollapseKeyIndex.getNotificationId(collapseKey, mContext);
+                    String replacedIdStr = Integer.toString(replacedId);
+                    if (replacedId != -1 && replacedId != id && !desiredIds.contains(replacedIdStr) && removedIds.add(replacedIdStr))
+                    {
+                        cancelNotificationAlarm(replacedId, mContext);
+                        NotificationScheduleIndex.remove(mContext, replacedId);
+                        deleteNotificationIntentData(replacedIdStr, mContext);
+                        NotificationPayloadStore.deletePayload(mContext, replacedId);
+                        if (currentIds.contains(replacedIdStr))
+                            removed++;
+                    }
+                    NotificationCollapseKeyIndex.put(collapseKey, id, mContext);
+                }
+                else
+                    NotificationCollapseKeyIndex.remove(id, mContext);
+
+                armNotificationAlarm(data_intent, mContext, hash);
+                NotificationTrace.beginAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+
+                NotificationScheduleIndex.put(mContext, data_intent);
+                syncedIds.add(idStr);
+
+                if (isScheduled || parkedVersions.containsKey(id))
+                    updated++;
+                else
+                    added++;
+            }
+
+            for (String idStr : currentIds)
+            {
+                if (syncedIds.contains(idStr) || removedIds.contains(idStr))
+                    continue;
+
+                int id = Integer.valueOf(idStr);
+                cancelNotificationAlarm(id, mContext);
+                NotificationCollapseKeyIndex.remove(id, mContext);
+                NotificationScheduleIndex.remove(mContext, id);
+                deleteNotificationIntentData(idStr, mContext);
+                NotificationPayloadStore.deletePayload(mContext, id);
+                removedIds.add(idStr);
+                removed++;
+            }
+
+            for (int id : parkedVersions.keySet())
+            {
+                String idStr = Integer.toString(id);
+                if (!desiredIds.contains(idStr) && !currentIds.contains(idStr))
+                    removed++;
+            }
+
+            updateScheduledNotificationIds(mContext, syncedIds, removedIds);
+
+            return new int[] { added, updated, removed, unchanged };
+        }
+    }
+
+    // Keeps only the last of the intents sharing a collapse key, the order of the kept intents doesn't change.
+    private static List<Intent> dropCollapsedIntents(List<Intent> intents)
+    {
+        Map<String, Intent> lastWithKey = new HashMap<String, Intent>();
+        for (Intent intent : intents)
+        {
+            String collapseKey = intent.getStringExtra("collapseKey");
+            if (collapseKey != null && collapseKey.length() > 0)
+                lastWithKey.put(collapseKey, intent);
+        }
+        if (lastWithKey.isEmpty())
+            return intents;
+
+        List<Intent> kept = new ArrayList<Intent>(intents.size());
+        for (Intent intent : intents)
+        {
+            String collapseKey = intent.getStringExtra("collapseKey");
+            if (collapseKey == null || collapseKey.length() == 0 || lastWithKey.get(collapseKey) == intent)
+                kept.add(intent);
+        }
+        return kept;
+    }
+
+    public static Intent buildOpenAppIntent(Intent data_intent, Context context, Class c)
+    {
+        Intent openAppIntent = new Intent(context, c);
+        openAppIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        openAppIntent.putExtras(data_intent);
+
+        return openAppIntent;
+    }
+
+    public static void scheduleNotificationIntentAlarm(Intent intent, Context context, PendingIntent broadcast)
+    {
+        NotificationTrace.begin("UnityNotifications.scheduleNotificationIntentAlarm");
+        try {
+            long repeatInterval = intent.getLongExtra("repeatInterval", 0L);
+            long fireTime = intent.getLongExtra("fireTime", 0L);
+            int id = intent.getIntExtra("id", 0);
+
+            AlarmManager alarmManager = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+
+            if (repeatInterval <= 0)
+            {
+                int precision = intent.getIntExtra("precision", NotificationAlarmPlanner.PRECISION_EXACT);
+                long precisionWindow = intent.getLongExtra("precisionWindow", NotificationAlarmPlanner.DEFAULT_PRECISION_WINDOW);
+
+                if (precision == NotificationAlarmPlanner.PRECISION_EXACT)
+                {
+                    int importance = getChannelImportance(intent.getStringExtra("channelID"), context);
+                    precision = NotificationAlarmPlanner.planPrecision(context, id, fireTime, precision, importance);
+                }
+                else
+                {
+                    NotificationAlarmPlanner.releaseExactAlarm(context, id);
+                }
+
+                switch (precision)
+                {
+                    case NotificationAlarmPlanner.PRECISION_WINDOWED:
+                        alarmManager.setWindow(AlarmManager.RTC_WAKEUP, fireTime, Math.max(precisionWindow, 0L), broadcast);
+                        break;
+                    case NotificationAlarmPlanner.PRECISION_INEXACT:
+                        alarmManager.set(AlarmManager.RTC_WAKEUP, fireTime, broadcast);
+                        break;
+                    default:
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+                        {
+                            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, fireTime, broadcast);
+                        }
+                        else
+                        {
+                            alarmManager.set(AlarmManager.RTC_WAKEUP, fireTime, broadcast);
+                        }
+                }
+
+                NotificationEventLog.record(context, NotificationEventLog.EVENT_ARMED, intent, precision);
+            }
+            else
+            {
+                alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, fireTime, repeatInterval, broadcast);
+                NotificationEventLog.record(context, NotificationEventLog.EVENT_ARMED, intent, NotificationAlarmPlanner.PRECISION_INEXACT);
+            }
+        } finally {
+            NotificationTrace.end();
+        }
+    }
+
+    static int getRequestedPrecision(Intent intent)
+    {
+        if (intent.getLongExtra("repeatInterval", 0L) > 0)
+            return NotificationAlarmPlanner.PRECISION_INEXACT;
+        return intent.getIntExtra("precision", NotificationAlarmPlanner.PRECISION_EXACT);
+    }
+
+    // The precision of the alarm the notification was actually armed with, exact alarms might have been moved to
+    // windowed ones by the NotificationAlarmPlanner. Only valid until the notification is marked as delivered.
+    static int getArmedPrecision(Intent intent, Context context)
+    {
+        int precision = getRequestedPrecision(intent);
+        if (precision == NotificationAlarmPlanner.PRECISION_EXACT && !NotificationAlarmPlanner.hasExactAlarm(context, intent.getIntExtra("id", 0)))
+            return NotificationAlarmPlanner.PRECISION_WINDOWED;
+        return precision;
+    }
+
+    // Returns {title, content} of the notification, rendered from it's template if it uses a registered one.
+    static String[] getNotificationText(Intent intent, Context context)
+    {
+        String templateId = intent.getStringExtra("templateId");
+        if (templateId != null)
+        {
+            String[] text = NotificationTemplateRegistry.render(context, templateId, intent.getStringExtra("templateParams"));
+            if (text != null)
+                return text;
+        }
+
+        return new String[] { intent.getStringExtra("textTitle"), intent.getStringExtra("textContent") };
+    }
+
+    protected static Notification.Builder buildNotification(Intent intent, Context context)
+    {
+        return buildNotification(NotificationPlan.compile(intent, context), intent, context);
+    }
+
+    // Builds the notification using the resources and settings resolved in the plan.
+    static Notification.Builder buildNotification(NotificationPlan plan, Intent intent, Context context)
+    {
+        NotificationTrace.begin("UnityNotifications.buildNotification");
+        try {
+            String channelID = intent.getStringExtra("channelID");
+            String[] text = getNotificationText(intent, context);
+            String textTitle = text[0];
+            String textContent = text[1];
+            boolean autoCancel = intent.getBooleanExtra("autoCancel", true);
+            boolean usesChronometer = intent.getBooleanExtra("usesChronometer", false);
+            int style = intent.getIntExtra("style", 0);
+            int color = intent.getIntExtra("color", 0);
+            int number = intent.getIntExtra("number", 0);
+
+            boolean showTimestamp = intent.getBooleanExtra("showTimestamp", false);
+            long timestampValue = intent.getLongExtra("timestamp", -1);
+
+            PendingIntent tapIntent = (PendingIntent)intent.getParcelableExtra("tapIntent");
+            if (tapIntent == null)
+                tapIntent = buildTapPendingIntent(intent, context);
+
+            Notification.Builder notificationBuilder;
+
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+            {
+                notificationBuilder = new Notification.Builder(context);
+            }
+            else
+            {
+                notificationBuilder = new Notification.Builder(context, channelID);
+            }
+
+            if (plan.largeIconId != 0)
+            {
+                NotificationTrace.begin("UnityNotifications.decodeLargeIcon");
+                try {
+                    notificationBuilder.setLargeIcon(BitmapFactory.decodeResource(context.getResources(), plan.largeIconId));
+                } finally {
+                    NotificationTrace.end();
+                }
+            }
+
+            notificationBuilder.setContentTitle(textTitle)
+                    .setContentText(textContent)
+                    .setSmallIcon(plan.smallIconId)
+                    .setContentIntent(tapIntent)
+                    .setAutoCancel(autoCancel);
+
+            if (intent.hasExtra("version"))
+                notificationBuilder.setDeleteIntent(buildDismissPendingIntent(intent.getIntExtra("id", -1), context));
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            {
+                if (color != 0)
+                {
+                    notificationBuilder.setColor(color);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    {
+                        notificationBuilder.setColorized(true);
+                    }
+                }
+            }
+
+            if (number >= 0)
+                notificationBuilder.setNumber(number);
+
+            if (style == 2)
+                notificationBuilder.setStyle(new Notification.BigTextStyle().bigText(textContent));
+
+            notificationBuilder.setWhen(timestampValue);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            {
+                notificationBuilder.setShowWhen(showTimestamp);
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1)
+            {
+                notificationBuilder.setUsesChronometer(usesChronometer);
+            }
+
+            if (plan.applyChannelSettings)
+            {
+                notificationBuilder.setDefaults(plan.defaults);
+                if (plan.vibrationPattern != null)
+                    notificationBuilder.setVibrate(plan.vibrationPattern);
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                {
+                    notificationBuilder.setVisibility(plan.lockscreenVisibility);
+                }
+
+                notificationBuilder.setPriority(plan.priority);
+            }
+
+            return notificationBuilder;
+        } finally {
+            NotificationTrace.end();
+        }
+    }
+
+    // Loads the plan stored with the notification, or compiles it again if there is none or it was compiled for a different app build.
+    static NotificationPlan loadNotificationPlan(Intent intent, Context context)
+    {
+        NotificationStore.Record record = getNotificationStore(context).get(intent.getIntExtra("id", -1));
+        NotificationPlan plan = record != null ? NotificationPlan.fromByteArray(record.plan) : null;
+
+        if (plan == null || !plan.isValid(context))
+            plan = NotificationPlan.compile(intent, context);
+        return plan;
+    }
+
+    // Like the alarm intent, the tap intent only carries the notification's id and version.
+    static PendingIntent buildTapPendingIntent(Intent intent, Context context)
+    {
+        int id = intent.getIntExtra("id", -1);
+
+        Class<?> openActivity = null;
+        String openActivityName = context.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE).getString(OPEN_ACTIVITY_CLASS, null);
+        if (openActivityName != null)
+        {
+            try {
+                openActivity = Class.forName(openActivityName);
+            } catch (ClassNotFoundException ignored) {
+                ;
+            }
+        }
+        if (openActivity == null)
+            openActivity = GetOpenAppActivity(context, true);
+
+        Intent openAppIntent = new Intent(context, openActivity);
+        openAppIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        openAppIntent.putExtra("id", id);
+        openAppIntent.putExtra("version", intent.getLongExtra("version", 0L));
+
+        return PendingIntent.getActivity(context, id, openAppIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    static PendingIntent buildDismissPendingIntent(int id, Context context)
+    {
+        Intent dismissIntent = new Intent(context, UnityNotificationManager.class);
+        dismissIntent.setAction(ACTION_NOTIFICATION_DISMISSED);
+        dismissIntent.putExtra("id", id);
+
+        return PendingIntent.getBroadcast(context, id, dismissIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    public static void sendNotification(Intent intent, Context context) {
+
+        Notification.Builder notificationBuilder = UnityNotificationManager.buildNotification(intent, context);
+        int id = intent.getIntExtra("id", -1);
+
+        UnityNotificationManager.notify(context, id, notificationBuilder, intent);
+    }
+
+    protected static void notify(Context context, int id, Notification.Builder notificationBuilder, Intent intent)
+    {
+        NotificationTrace.begin("UnityNotifications.notify");
+        try {
+            getNotificationManager(context).notify(id, notificationBuilder.build());
+            NotificationEventLog.record(context, NotificationEventLog.EVENT_POSTED, intent, getArmedPrecision(intent, context));
+
+            // There is no one to tell when the app isn't running.
+            if (mNotificationCallback != null)
+            {
+                try {
+                    mNotificationCallback.onSentNotification(intent);
+                }
+                catch (RuntimeException ex)
+                {
+                    Log.w("UnityNotifications", "OnNotificationReceived event failed: " + ex.toString());
+                }
+            }
+
+            finishDelivery(context, id, intent);
+        } finally {
+            NotificationTrace.end();
         }
+    }
+
+    // Returns true if nothing else ran in this process before (no receiver, no manager), so the caller is the work the
+    // process was started for. Alarms delivered to such a process take the cold path.
+    static synchronized boolean beginProcessWork()
+    {
+        if (mProcessWorkStarted)
+            return false;
+
+        mProcessWorkStarted = true;
+        return true;
+    }
+
+    // Delivery path for stored notifications when the process was started to deliver the alarm. Only the notification's
+    // record and plan are loaded, there is no Unity callback to call and no manager or activity to look up. The
+    // notification is only removed from the scheduled set and it's delivered time recorded, the indexes are cleaned up
+    // by finishColdDeliveries. The time from the start of the process (from onReceive before Android 7.0) until the
+    // notification is posted is recorded as an EVENT_COLD_POSTED event.
+    static void postColdNotification(Context context, Intent intent, long receivedAt)
+    {
+        NotificationTrace.begin("UnityNotifications.postColdNotification");
+        try {
+            int id = intent.getIntExtra("id", -1);
+
+            NotificationPlan plan = loadNotificationPlan(intent, context);
+            Notification.Builder notificationBuilder = buildNotification(plan, intent, context);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                UnityNotificationManagerNougat.applyGroupSettings(plan, notificationBuilder);
 
+            getNotificationManager(context).notify(id, notificationBuilder.build());
+            int precision = getArmedPrecision(intent, context);
+            NotificationEventLog.record(context, NotificationEventLog.EVENT_POSTED, intent, precision);
+
+            long now = System.currentTimeMillis();
+            long startedAt = receivedAt;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                startedAt = now - (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+            NotificationEventLog.record(context, NotificationEventLog.EVENT_COLD_POSTED, id, intent.getStringExtra("channelID"), precision, startedAt, now);
+
+            boolean isRepeatable = intent.getLongExtra("repeatInterval", 0L) > 0;
+            if (!isRepeatable)
+            {
+                getNotificationStore(context).updateScheduled(null, Collections.singleton(id));
+                context.getSharedPreferences(UNITY_DELIVERED_NOTIFICATIONS, Context.MODE_PRIVATE).edit()
+                        .putLong(Integer.toString(id), now).apply();
+            }
+
+            NotificationTrace.endAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+            if (isRepeatable)
+                NotificationTrace.beginAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+        } finally {
+            NotificationTrace.end();
+        }
+    }
+
+    private static void finishDelivery(Context context, int id, Intent intent)
+    {
         boolean isRepeatable = intent.getLongExtra("repeatInterval", 0L) > 0;
 
         if (!isRepeatable)
-            UnityNotificationManager.deleteExpiredNotificationIntent(id, context);
+            UnityNotificationManager.markNotificationDelivered(id, context);
+
+        // Repeating notifications start waiting for their next occurrence.
+        NotificationTrace.endAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+        if (isRepeatable)
+            NotificationTrace.beginAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
     }
 
     public void registerNotificationChannel(
@@ -689,30 +1645,73 @@ public class UnityNotificationManager extends BroadcastReceiver
             boolean canShowBadge,
             long[] vibrationPattern,
             int lockscreenVisibility)
+    {
+        NotificationChannelWrapper channel = new NotificationChannelWrapper();
+        channel.id = id;
+        channel.name = title;
+        channel.importance = importance;
+        channel.description = description;
+        channel.enableLights = enableLights;
+        channel.enableVibration = enableVibration;
+        channel.canBypassDnd = canBypassDnd;
+        channel.canShowBadge = canShowBadge;
+        channel.vibrationPattern = vibrationPattern;
+        channel.lockscreenVisibility = lockscreenVisibility;
+
+        registerNotificationChannels(new NotificationChannelWrapper[] { channel });
+    }
+
+    public void registerNotificationChannels(List<NotificationChannelWrapper> channels)
+    {
+        registerNotificationChannels(channels.toArray(new NotificationChannelWrapper[channels.size()]));
+    }
+
+    // Channels whose definition is unchanged since they were last registered are skipped, the channel id set
+    // and the definition hashes of all registered channels are written in one commit.
+    public void registerNotificationChannels(NotificationChannelWrapper[] channels)
     {
         SharedPreferences prefs = mContext.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE);
-        Set<String> channelIdsSet = prefs.getStringSet("ChannelIDs", new HashSet<String>());
-        channelIdsSet.add(id);
+        Set<String> channelIdsSet = new HashSet<String>(prefs.getStringSet("ChannelIDs", new HashSet<String>()));
+        SharedPreferences.Editor editor = null;
+
+        for (NotificationChannelWrapper channel : channels)
+        {
+            long hash = channel.computeDefinitionHash();
+            if (channelIdsSet.contains(channel.id) && isChannelDefinitionUnchanged(prefs, channel.id, hash))
+                continue;
+
+            if (editor == null)
+                editor = prefs.edit();
+
+            channelIdsSet.add(channel.id);
+            editor.putLong(CHANNEL_HASH_PREFIX + channel.id, hash);
 
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.clear();
-        editor.putStringSet("ChannelIDs", channelIdsSet);
-        editor.apply();
+            SharedPreferences.Editor channelEditor = mContext.getSharedPreferences(String.format("unity_notification_channel_%s", channel.id), Context.MODE_PRIVATE).edit();
 
-        SharedPreferences channelPrefs = mContext.getSharedPreferences(String.format("unity_notification_channel_%s", id), Context.MODE_PRIVATE);
-        editor = channelPrefs.edit();
+            channelEditor.putString("title", channel.name);
+            channelEditor.putInt("importance", channel.importance);
+            channelEditor.putString("description", channel.description);
+            channelEditor.putBoolean("enableLights", channel.enableLights);
+            channelEditor.putBoolean("enableVibration", channel.enableVibration);
+            channelEditor.putBoolean("canBypassDnd", channel.canBypassDnd);
+            channelEditor.putBoolean("canShowBadge", channel.canShowBadge);
+            channelEditor.putString("vibrationPattern", Arrays.toString(channel.vibrationPattern));
+            channelEditor.putInt("lockscreenVisibility", channel.lockscreenVisibility);
 
-        editor.putString("title", title);
-        editor.putInt("importance", importance);
-        editor.putString("description", description);
-        editor.putBoolean("enableLights", enableLights);
-        editor.putBoolean("enableVibration", enableVibration);
-        editor.putBoolean("canBypassDnd", canBypassDnd);
-        editor.putBoolean("canShowBadge", canShowBadge);
-        editor.putString("vibrationPattern", Arrays.toString(vibrationPattern));
-        editor.putInt("lockscreenVisibility", lockscreenVisibility);
+            channelEditor.apply();
+        }
+
+        if (editor != null)
+        {
+            editor.putStringSet("ChannelIDs", channelIdsSet);
+            editor.apply();
+        }
+    }
 
-        editor.apply();
+    static boolean isChannelDefinitionUnchanged(SharedPreferences prefs, String id, long hash)
+    {
+        String key = CHANNEL_HASH_PREFIX + id;
+        return prefs.contains(key) && prefs.getLong(key, 0L) == hash;
     }
 
     public Object[] getNotificationChannels()
@@ -732,15 +1731,15 @@ public class UnityNotificationManager extends BroadcastReceiver
     public void deleteNotificationChannel(String id)
     {
         SharedPreferences prefs = mContext.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE);
-        Set<String> channelIdsSet = prefs.getStringSet("ChannelIDs", new HashSet<String>());
+        Set<String> channelIdsSet = new HashSet<String>(prefs.getStringSet("ChannelIDs", new HashSet<String>()));
 
         if (channelIdsSet.contains(id)) {
 
             channelIdsSet.remove(id);
 
             SharedPreferences.Editor editor = prefs.edit();
-            editor.clear();
             editor.putStringSet("ChannelIDs", channelIdsSet);
+            editor.remove(CHANNEL_HASH_PREFIX + id);
             editor.apply();
 
             SharedPreferences channelPrefs = mContext.getSharedPreferences(String.format("unity_notification_channel_%s", id), Context.MODE_PRIVATE);
@@ -750,6 +1749,143 @@ public class UnityNotificationManager extends BroadcastReceiver
         }
     }
 
+    // Returns the full notification for a slim tap intent (only id and version), null if it's no longer stored.
+    public Intent loadNotificationIntent(Intent intent)
+    {
+        Intent data_intent = resolveNotificationIntent(intent, mContext);
+
+        // Slim intents reaching Unity are tap intents, the same intent is returned by the activity every time it's asked for.
+        if (data_intent != null && !intent.getBooleanExtra("tapRecorded", false))
+        {
+            intent.putExtra("tapRecorded", true);
+            NotificationLiveUpdates.end(data_intent.getIntExtra("id", -1));
+            NotificationEventLog.record(mContext, NotificationEventLog.EVENT_TAPPED, data_intent, getRequestedPrecision(data_intent));
+        }
+        return data_intent;
+    }
+
+    // Purges expired and stale notification records right away, returns {purged, stale}.
+    public int[] purgeExpiredNotifications()
+    {
+        return NotificationExpirySweeper.sweep(mContext);
+    }
+
+    // Removes and returns up to maxCount of the oldest notification lifecycle events.
+    public NotificationEventBatch drainNotificationEvents(int maxCount)
+    {
+        return NotificationEventLog.drain(mContext, maxCount);
+    }
+
+    // Suppression rules checked when notifications fire, see NotificationSuppressionRules. The channel is null or empty
+    // for rules that apply to all channels, times are minutes of the day.
+    public void setQuietHoursRule(String ruleId, String channel, int startMinute, int endMinute, int action)
+    {
+        NotificationSuppressionRules.put(mContext, ruleId, NotificationSuppressionRules.quietHours(emptyToNull(channel), startMinute, endMinute, action));
+    }
+
+    public void setChannelMuteRule(String ruleId, String channel)
+    {
+        NotificationSuppressionRules.put(mContext, ruleId, NotificationSuppressionRules.channelMute(emptyToNull(channel)));
+    }
+
+    public void setDailyCapRule(String ruleId, String channel, int maxPerDay, int action)
+    {
+        NotificationSuppressionRules.put(mContext, ruleId, NotificationSuppressionRules.dailyCap(emptyToNull(channel), maxPerDay, action));
+    }
+
+    public void removeSuppressionRule(String ruleId)
+    {
+        NotificationSuppressionRules.remove(mContext, ruleId);
+    }
+
+    public void clearSuppressionRules()
+    {
+        NotificationSuppressionRules.clear(mContext);
+    }
+
+    private static String emptyToNull(String value)
+    {
+        return value != null && value.length() > 0 ? value : null;
+    }
+
+    // Registers the title and body patterns of a template for a locale (empty for the fallback), see NotificationTemplateRegistry.
+    public void registerNotificationTemplate(String id, String locale, String title, String body)
+    {
+        NotificationTemplateRegistry.register(mContext, id, locale, title, body);
+    }
+
+    public void deleteNotificationTemplate(String id)
+    {
+        NotificationTemplateRegistry.delete(mContext, id);
+    }
+
+    // Returns {title, content} of a notification intent as it's shown, rendered from it's template if it uses one.
+    public String[] renderNotificationText(Intent intent)
+    {
+        return getNotificationText(intent, mContext);
+    }
+
+    // Writes the registered channels and the scheduled notifications to a snapshot file, see NotificationSnapshot.
+    // Returns the number of notifications written, -1 if the file couldn't be written.
+    public int exportNotificationSnapshot(String path)
+    {
+        List<NotificationChannelWrapper> channels = new ArrayList<NotificationChannelWrapper>();
+        for (Object channel : getNotificationChannels())
+        {
+            if (channel != null)
+                channels.add((NotificationChannelWrapper)channel);
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(path);
+            return NotificationSnapshot.write(mContext, channels, out);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to export notification snapshot: " + e.getMessage());
+            return -1;
+        } finally {
+            NotificationPayloadStore.closeQuietly(out);
+        }
+    }
+
+    // Registers the channels of a snapshot file and replaces the scheduled notifications with the ones in it. The channels
+    // are registered in one batch and all alarms are armed by one syncScheduledNotificationIntents pass, one-time
+    // notifications whose fire time has passed are dropped. Returns {channels, notifications}, empty if the file couldn't be read.
+    public int[] importNotificationSnapshot(String path)
+    {
+        NotificationSnapshot.Contents contents;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            contents = NotificationSnapshot.read(mContext, in);
+        } catch (IOException e) {
+            Log.w("UnityNotifications", "Failed to import notification snapshot: " + e.getMessage());
+            return new int[0];
+        } finally {
+            NotificationPayloadStore.closeQuietly(in);
+        }
+
+        registerNotificationChannels(contents.channels);
+
+        long now = System.currentTimeMillis();
+        List<Intent> notifications = new ArrayList<Intent>();
+        for (Intent intent : contents.notifications)
+        {
+            if (intent.getLongExtra("repeatInterval", 0L) <= 0 && intent.getLongExtra("fireTime", 0L) < now)
+                continue;
+            notifications.add(intent);
+        }
+        syncScheduledNotificationIntents(notifications);
+
+        return new int[] { contents.channels.size(), notifications.size() };
+    }
+
+    // Returns the "data" payload of a notification intent, loading it if it was stored out of line.
+    public String loadNotificationPayload(Intent intent)
+    {
+        return NotificationPayloadStore.loadPayload(mContext, intent);
+    }
+
     public NotificationChannelWrapper getNotificationChannel(String id)
     {
         return  UnityNotificationManager.getNotificationChannel(id, mContext);
@@ -757,8 +1893,9 @@ public class UnityNotificationManager extends BroadcastReceiver
 
     public int[] getScheduledNotificationIDs()
     {
-        SharedPreferences prefs = mContext.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = prefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
+        Set<String> idsSet = getScheduledNotificationIds(mContext);
+        for (int id : NotificationSegments.getIds(mContext))
+            idsSet.add(Integer.toString(id));
 
         String[] idsArrStr = idsSet.toArray(new String[idsSet.size()]);
         int[] idsArrInt = new int[idsSet.size()];
@@ -770,6 +1907,17 @@ public class UnityNotificationManager extends BroadcastReceiver
         return idsArrInt;
     }
 
+    // Streams over the scheduled notifications in fire time order, see NotificationScheduleIndex.query.
+    public NotificationQueryResult queryScheduledNotifications(String channel, String group, long fromTime, long toTime, int repeatFilter, int limit, String cursor)
+    {
+        return NotificationScheduleIndex.query(mContext, channel, group, fromTime, toTime, repeatFilter, limit, cursor);
+    }
+
+    public NotificationQueryResult getUpcomingNotifications(int count)
+    {
+        return NotificationScheduleIndex.query(mContext, null, null, System.currentTimeMillis(), 0L, NotificationScheduleIndex.REPEAT_ANY, count, null);
+    }
+
     public void getScheduledNotifications()
     {
         int[] ids = getScheduledNotificationIDs();
@@ -823,15 +1971,21 @@ public class UnityNotificationManager extends BroadcastReceiver
 
     public void cancelAllPendingNotificationIntents()
     {
-        int[] ids = this.getScheduledNotificationIDs();
-
-        for (int id : ids)
+        // Parked notifications are removed all together.
+        for (String id : getScheduledNotificationIds(mContext))
         {
-            cancelPendingNotificationIntent(id);
+            cancelPendingNotification(Integer.parseInt(id), mContext);
         }
+        NotificationSegments.clear(mContext);
     }
 
-    private static void cancelPendingNotificationIntentInternal(int requestCode, Context context)
+    static boolean isNotificationAlarmRegistered(int requestCode, Context context)
+    {
+        Intent intent = new Intent(context, UnityNotificationManager.class);
+        return (PendingIntent.getBroadcast(context, requestCode, intent, PendingIntent.FLAG_NO_CREATE) != null);
+    }
+
+    static void cancelNotificationAlarm(int requestCode, Context context)
     {
         Intent intent = new Intent(context, UnityNotificationManager.class);
         PendingIntent broadcast = PendingIntent.getBroadcast(context, requestCode, intent, PendingIntent.FLAG_NO_CREATE);
@@ -844,42 +1998,218 @@ public class UnityNotificationManager extends BroadcastReceiver
             broadcast.cancel();
         }
 
-        SharedPreferences prefs = context.getSharedPreferences(UNITY_STORED_NOTIFICATION_IDS, Context.MODE_PRIVATE);
-        Set<String> idsSet = prefs.getStringSet(SHARED_PREFS_NOTIFICATION_IDS, new HashSet<String>());
-        Set<String> idsSetCopy = new HashSet<String>(idsSet);
+        // A deferred occurrence of a repeating notification.
+        intent.setAction(ACTION_DEFERRED_NOTIFICATION);
+        PendingIntent deferred = PendingIntent.getBroadcast(context, requestCode, intent, PendingIntent.FLAG_NO_CREATE);
+        if (deferred != null)
+        {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.cancel(deferred);
+            deferred.cancel();
+        }
 
-        String requestCodeStr = Integer.toString(requestCode);
-        if (idsSetCopy.contains(requestCodeStr)) {
-            idsSetCopy.remove(Integer.toString(requestCode));
+        NotificationAlarmPlanner.releaseExactAlarm(context, requestCode);
+    }
 
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.clear();
-            editor.putStringSet(SHARED_PREFS_NOTIFICATION_IDS, idsSetCopy);
-            editor.apply();
+    // Checks the suppression rules when a notification's alarm went off, see NotificationSuppressionRules. Deferred
+    // notifications are armed again for the deferred time through scheduleNotificationIntentAlarm, one-time ones are
+    // stored with the new fire time, an occurrence of a repeating one gets a one-shot alarm of it's own while the repeating
+    // alarm stays armed. Dropped one-time notifications are no longer scheduled, repeating ones only skip the occurrence.
+    static boolean isSuppressed(Context context, Intent alarmIntent, Intent intent)
+    {
+        long result = NotificationSuppressionRules.evaluate(context, intent.getStringExtra("channelID"), System.currentTimeMillis());
+        if (result == NotificationSuppressionRules.SHOW)
+            return false;
+
+        int id = intent.getIntExtra("id", -1);
+        boolean isRepeatable = intent.getLongExtra("repeatInterval", 0L) > 0;
+        if (result == NotificationSuppressionRules.DROP)
+        {
+            if (!isRepeatable)
+            {
+                cancelPendingNotificationIntentInternal(id, context);
+                NotificationTrace.endAsync(NotificationTrace.NOTIFICATION_LIFETIME, id);
+            }
+            return true;
+        }
+
+        Intent deferred = (Intent)intent.clone();
+        deferred.putExtra("fireTime", result);
+        Intent deferredAlarmIntent = (Intent)alarmIntent.clone();
+        if (alarmIntent == intent)
+            deferredAlarmIntent.putExtra("fireTime", result);
+
+        if (isRepeatable)
+        {
+            deferred.removeExtra("repeatInterval");
+            deferred.putExtra("precision", NotificationAlarmPlanner.PRECISION_INEXACT);
+            deferredAlarmIntent.setAction(ACTION_DEFERRED_NOTIFICATION);
+        }
+        else if (alarmIntent != intent)
+        {
+            // The version is kept, so the alarm intent still matches the record.
+            writeNotificationIntentData(deferred, context, alarmIntent.getLongExtra("version", 0L));
+            NotificationScheduleIndex.put(context, deferred);
         }
+
+        PendingIntent broadcast = PendingIntent.getBroadcast(context, id, deferredAlarmIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        scheduleNotificationIntentAlarm(deferred, context, broadcast);
+        return true;
+    }
+
+    private static void cancelPendingNotificationIntentInternal(int requestCode, Context context)
+    {
+        cancelNotificationAlarm(requestCode, context);
+        NotificationCollapseKeyIndex.remove(requestCode, context);
+        NotificationScheduleIndex.remove(context, requestCode);
+        getNotificationStore(context).updateScheduled(null, Collections.singleton(requestCode));
     }
 
     public void cancelPendingNotificationIntent(int requestCode)
     {
-        UnityNotificationManager.cancelPendingNotificationIntentInternal(requestCode, mContext);
-        if (this.reschedule_on_restart)
+        cancelPendingNotification(requestCode, mContext);
+    }
+
+    static void cancelPendingNotification(int requestCode, Context context)
+    {
+        synchronized (mScheduleLock)
         {
-            UnityNotificationManager.deleteExpiredNotificationIntent(requestCode, mContext);
+            UnityNotificationManager.deleteExpiredNotificationIntent(requestCode, context);
+            NotificationPayloadStore.deletePayload(context, requestCode);
         }
+        NotificationSegments.remove(context, requestCode);
+    }
+
+    public void cancelDisplayedNotification(int id)
+    {
+        NotificationLiveUpdates.end(id);
+        getNotificationManager().cancel(id);
     }
 
     public void cancelAllNotifications()
     {
+        NotificationLiveUpdates.endAll();
         getNotificationManager().cancelAll();
     }
 
+    // Updates a shown notification with the changed fields, see NotificationLiveUpdates. Returns false if the
+    // notification isn't stored or isn't shown anymore.
+    public boolean updateNotification(int id, Intent changes)
+    {
+        return NotificationLiveUpdates.update(mContext, id, changes);
+    }
+
+    public void setNotificationUpdateInterval(long minInterval)
+    {
+        NotificationLiveUpdates.setMinInterval(minInterval);
+    }
+
+    // Runs work which checks or rewrites every notification on a thread of it's own, the receiver is kept alive until it's
+    // done and it's changes are flushed.
+    private void runAsync(String name, final Runnable work)
+    {
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    work.run();
+                } finally {
+                    NotificationStore.flushInstance();
+                    result.finish();
+                }
+            }
+        }, name).start();
+    }
+
     @Override
-    public void onReceive(Context context, Intent intent)
+    public void onReceive(final Context context, Intent intent)
     {
+        NotificationTrace.begin("UnityNotifications.onReceive");
+        long receivedAt = System.currentTimeMillis();
+        boolean isFirstWork = beginProcessWork();
         try{
+            if (ACTION_NOTIFICATION_DISMISSED.equals(intent.getAction()))
+            {
+                String id = Integer.toString(intent.getIntExtra("id", -1));
+                NotificationLiveUpdates.end(intent.getIntExtra("id", -1));
+                Intent data_intent = UnityNotificationManager.loadNotificationIntentData(id, context);
+                if (data_intent != null)
+                    NotificationEventLog.record(context, NotificationEventLog.EVENT_DISMISSED, data_intent, getRequestedPrecision(data_intent));
+
+                UnityNotificationManager.deleteDeliveredNotification(id, context);
+                return;
+            }
+
+            // Alarms usually survive app updates, but not on every device.
+            if (Intent.ACTION_MY_PACKAGE_REPLACED.equals(intent.getAction()))
+            {
+                runAsync("UnityNotificationReconcile", new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        UnityNotificationManager.reconcileScheduledNotifications(context);
+                        NotificationExpirySweeper.scheduleSweep(context);
+                    }
+                });
+                return;
+            }
+
+            if (NotificationExpirySweeper.ACTION_SWEEP_EXPIRED.equals(intent.getAction()))
+            {
+                runAsync("UnityNotificationSweep", new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        UnityNotificationManager.reconcileScheduledNotifications(context);
+                        UnityNotificationManager.scheduleDueParkedNotifications(context);
+                        int[] result = NotificationExpirySweeper.sweep(context);
+                        if (result[1] > 0)
+                            Log.w("UnityNotifications", String.format("Purged %d expired notification records, %d of them stale.", result[0], result[1]));
+                    }
+                });
+                return;
+            }
+
+            if (intent.hasExtra("version") && !intent.hasExtra("channelID"))
+            {
+                int id = intent.getIntExtra("id", -1);
+                Intent alarmIntent = intent;
+                intent = UnityNotificationManager.resolveNotificationIntent(intent, context);
+                if (intent == null)
+                {
+                    Log.w("UnityNotifications", String.format("Notification %d is no longer stored or was replaced, not showing it.", id));
+                    return;
+                }
+
+                NotificationEventLog.record(context, NotificationEventLog.EVENT_FIRED, intent, getArmedPrecision(intent, context));
+                if (UnityNotificationManager.isSuppressed(context, alarmIntent, intent))
+                    return;
+
+                if (isFirstWork)
+                {
+                    UnityNotificationManager.postColdNotification(context, intent, receivedAt);
+                    return;
+                }
+
+                // Stored notifications come with a plan compiled when they were scheduled.
+                NotificationPlan plan = UnityNotificationManager.loadNotificationPlan(intent, context);
+                Notification.Builder notificationBuilder = UnityNotificationManager.buildNotification(plan, intent, context);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                    UnityNotificationManagerNougat.applyGroupSettings(plan, notificationBuilder);
+
+                UnityNotificationManager.notify(context, id, notificationBuilder, intent);
+                return;
+            }
+
             if (!intent.hasExtra("channelID") || !intent.hasExtra("smallIconStr"))
                 return;
 
+            NotificationEventLog.record(context, NotificationEventLog.EVENT_FIRED, intent, getArmedPrecision(intent, context));
+            if (UnityNotificationManager.isSuppressed(context, intent, intent))
+                return;
+
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
             {
                 UnityNotificationManagerNougat.sendNotificationNougat(intent, context);
@@ -892,5 +2222,11 @@ public class UnityNotificationManager extends BroadcastReceiver
         {
             Log.w("UnityNotifications", e.toString());
         }
+        finally
+        {
+            // The process may be killed once the receiver returns, changes can't wait for the group commit.
+            NotificationStore.flushInstance();
+            NotificationTrace.end();
+        }
     }
 }
@@ -28,38 +28,38 @@ public class UnityNotificationManagerNougat extends UnityNotificationManager {
 
     public static void sendNotificationNougat(Intent intent, Context context) {
 
-        Notification.Builder notificationBuilder = UnityNotificationManager.buildNotification(intent, context);
+        NotificationPlan plan = NotificationPlan.compile(intent, context);
+        Notification.Builder notificationBuilder = UnityNotificationManager.buildNotification(plan, intent, context);
         int id = intent.getIntExtra("id", -1);
 
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.N) {
+        applyGroupSettings(plan, notificationBuilder);
 
-            String group = intent.getStringExtra("group");
-            boolean groupSummary = intent.getBooleanExtra("groupSummary", false);
+        UnityNotificationManager.notify(context, id, notificationBuilder, intent);
+    }
 
-            String sortKey = intent.getStringExtra("sortKey");
-            int groupAlertBehaviour = intent.getIntExtra("groupAlertBehaviour", -1);
+    static void applyGroupSettings(NotificationPlan plan, Notification.Builder notificationBuilder) {
 
-            if (group != null && group.length() > 0) {
-                notificationBuilder.setGroup(group);
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.N) {
+
+            if (plan.group != null && plan.group.length() > 0) {
+                notificationBuilder.setGroup(plan.group);
             }
 
-            if (groupSummary)
-                notificationBuilder.setGroupSummary(groupSummary);
+            if (plan.groupSummary)
+                notificationBuilder.setGroupSummary(plan.groupSummary);
 
-            if (sortKey != null && sortKey.length() > 0) {
-                notificationBuilder.setSortKey(sortKey);
+            if (plan.sortKey != null && plan.sortKey.length() > 0) {
+                notificationBuilder.setSortKey(plan.sortKey);
             }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
 
-                if (groupAlertBehaviour >= 0) {
-                    notificationBuilder.setGroupAlertBehavior(groupAlertBehaviour);
+                if (plan.groupAlertBehaviour >= 0) {
+                    notificationBuilder.setGroupAlertBehavior(plan.groupAlertBehaviour);
                 }
             }
 
         }
-
-        UnityNotificationManager.notify(context, id, notificationBuilder, intent);
     }
 
 }
@@ -6,10 +6,14 @@ import android.app.NotificationManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.Keep;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static android.app.Notification.PRIORITY_DEFAULT;
 import static android.app.Notification.VISIBILITY_PUBLIC;
@@ -18,6 +22,28 @@ import static android.app.NotificationManager.IMPORTANCE_NONE;
 @Keep
 public class UnityNotificationManagerOreo extends UnityNotificationManagerNougat {
 
+    // A channel returned by getNotificationChannels and it's wrapper, the wrapper is reused while the channel is unchanged.
+    private static class ConvertedChannel
+    {
+        final NotificationChannel channel;
+        final NotificationChannelWrapper wrapper;
+
+        ConvertedChannel(NotificationChannel channel)
+        {
+            this.channel = channel;
+            this.wrapper = NotificationChannelToWrapper(channel);
+        }
+    }
+
+    private HashMap<String, ConvertedChannel> mConvertedChannels = new HashMap<String, ConvertedChannel>();
+
+    // Importance of every channel, used for planning the alarms of scheduled notifications without a binder call per
+    // alarm. Loaded with one getNotificationChannels call and kept for CHANNEL_IMPORTANCE_TTL, the user may change the
+    // importance in the settings meanwhile. Channels registered or deleted by the plugin drop the cache.
+    static final long CHANNEL_IMPORTANCE_TTL = 60 * 1000L;
+    private static HashMap<String, Integer> mImportances;
+    private static long mImportancesLoadedAt;
+
     public static NotificationChannelWrapper NotificationChannelToWrapper(NotificationChannel channel)
     {
         NotificationChannelWrapper wrapper = new NotificationChannelWrapper();
@@ -43,65 +69,124 @@ public class UnityNotificationManagerOreo extends UnityNotificationManagerNougat
         {
             return null;
         }
-        List<NotificationChannelWrapper> channelList = new ArrayList<NotificationChannelWrapper>();
+        NotificationChannel channel = getNotificationManager(context).getNotificationChannel(id);
+        if (channel == null)
+            return null;
+
+        return NotificationChannelToWrapper(channel);
+    }
+
+
+    // Returns IMPORTANCE_DEFAULT if the channel doesn't exist.
+    static synchronized int getChannelImportance(String id, Context context)
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+            return NotificationManager.IMPORTANCE_DEFAULT;
+
+        long now = SystemClock.elapsedRealtime();
+        if (mImportances == null || now - mImportancesLoadedAt >= CHANNEL_IMPORTANCE_TTL)
+            setChannelImportances(getNotificationManager(context).getNotificationChannels());
 
-        for(NotificationChannel ch : getNotificationManager(context).getNotificationChannels())
+        Integer importance = mImportances.get(id);
+        return importance != null ? importance : NotificationManager.IMPORTANCE_DEFAULT;
+    }
+
+    private static synchronized void setChannelImportances(List<NotificationChannel> channels)
+    {
+        HashMap<String, Integer> importances = new HashMap<String, Integer>();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
         {
-            if (ch.getId() == id)
-                return NotificationChannelToWrapper(ch);
+            for (NotificationChannel channel : channels)
+                importances.put(channel.getId(), channel.getImportance());
         }
-        return null;
+        mImportances = importances;
+        mImportancesLoadedAt = SystemClock.elapsedRealtime();
     }
 
+    private static synchronized void dropChannelImportances()
+    {
+        mImportances = null;
+    }
 
     public UnityNotificationManagerOreo(Context context, Activity activity)
     {
         super(context, activity);
     }
 
+    // All new or changed channels are created with a single createNotificationChannels call. A channel is only skipped if
+    // it's stored hash matches and the system still has it, it's gone if it was deleted from outside of the plugin or the
+    // preferences were restored from a backup.
     @Override
-    public void registerNotificationChannel(
-            String id,
-            String title,
-            int importance,
-            String description,
-            boolean enableLights,
-            boolean enableVibration,
-            boolean canBypassDnd,
-            boolean canShowBadge,
-            long[] vibrationPattern,
-            int lockscreenVisibility)
+    public void registerNotificationChannels(NotificationChannelWrapper[] channels)
     {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
         {
-            NotificationChannel channel = new NotificationChannel(id, title, importance);
-            channel.setDescription(description);
-            channel.enableLights(enableLights);
-            channel.enableVibration(enableVibration);
-            channel.setBypassDnd(canBypassDnd);
-            channel.setShowBadge(canShowBadge);
-            channel.setVibrationPattern(vibrationPattern);
-            channel.setLockscreenVisibility(lockscreenVisibility);
-
-            getNotificationManager().createNotificationChannel(channel);
+            return;
         }
+
+        SharedPreferences prefs = mContext.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        List<NotificationChannel> changedChannels = new ArrayList<NotificationChannel>();
+
+        Set<String> existingIds = new HashSet<String>();
+        for (NotificationChannel channel : getNotificationManager().getNotificationChannels())
+            existingIds.add(channel.getId());
+
+        for (NotificationChannelWrapper wrapper : channels)
+        {
+            long hash = wrapper.computeDefinitionHash();
+            if (existingIds.contains(wrapper.id) && isChannelDefinitionUnchanged(prefs, wrapper.id, hash))
+                continue;
+
+            NotificationChannel channel = new NotificationChannel(wrapper.id, wrapper.name, wrapper.importance);
+            channel.setDescription(wrapper.description);
+            channel.enableLights(wrapper.enableLights);
+            channel.enableVibration(wrapper.enableVibration);
+            channel.setBypassDnd(wrapper.canBypassDnd);
+            channel.setShowBadge(wrapper.canShowBadge);
+            channel.setVibrationPattern(wrapper.vibrationPattern);
+            channel.setLockscreenVisibility(wrapper.lockscreenVisibility);
+
+            changedChannels.add(channel);
+            editor.putLong(CHANNEL_HASH_PREFIX + wrapper.id, hash);
+        }
+
+        if (changedChannels.isEmpty())
+            return;
+
+        getNotificationManager().createNotificationChannels(changedChannels);
+        editor.apply();
+        dropChannelImportances();
     }
 
+    // The channels are read from the system every time, as the user can change them in the settings, but only the channels
+    // that changed since the previous call are converted again.
     @Override
-    public NotificationChannelWrapper[] getNotificationChannels()
+    public synchronized NotificationChannelWrapper[] getNotificationChannels()
     {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
         {
             return null;
         }
-        List<NotificationChannelWrapper> channelList = new ArrayList<NotificationChannelWrapper>();
+        List<NotificationChannel> channels = getNotificationManager().getNotificationChannels();
+        NotificationChannelWrapper[] wrappers = new NotificationChannelWrapper[channels.size()];
+        HashMap<String, ConvertedChannel> convertedChannels = new HashMap<String, ConvertedChannel>();
 
-        for(NotificationChannel ch : getNotificationManager().getNotificationChannels())
+        for (int i = 0; i < wrappers.length; i++)
         {
-            channelList.add(NotificationChannelToWrapper(ch));
+            NotificationChannel channel = channels.get(i);
+            ConvertedChannel converted = mConvertedChannels.get(channel.getId());
+            if (converted == null || !converted.channel.equals(channel))
+                converted = new ConvertedChannel(channel);
+
+            convertedChannels.put(channel.getId(), converted);
+            wrappers[i] = converted.wrapper;
         }
 
-        return channelList.toArray(new NotificationChannelWrapper[channelList.size()]);
+        // Deleted channels are dropped.
+        mConvertedChannels = convertedChannels;
+        setChannelImportances(channels);
+        return wrappers;
     }
 
     @Override
@@ -110,6 +195,9 @@ public class UnityNotificationManagerOreo extends UnityNotificationManagerNougat
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
         {
             getNotificationManager().deleteNotificationChannel(id);
+            mContext.getSharedPreferences(UNITY_NOTIFICATION_SETTINGS, Context.MODE_PRIVATE).edit()
+                    .remove(CHANNEL_HASH_PREFIX + id).apply();
+            dropChannelImportances();
         }
     }
 
@@ -0,0 +1,30 @@
+package com.unity.androidnotifications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.Keep;
+import android.util.Log;
+
+// Moves notifications anchored to a local time of day when the time zone or the clock is changed, see
+// UnityNotificationManager.rebaseLocalTimeNotifications. Notifications at absolute times keep their alarms.
+@Keep
+public class UnityNotificationTimeChangeReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent received_intent) {
+        String action = received_intent.getAction();
+        if (!Intent.ACTION_TIMEZONE_CHANGED.equals(action) && !Intent.ACTION_TIME_CHANGED.equals(action))
+            return;
+
+        NotificationTrace.begin("UnityNotifications.rebaseLocalTimes");
+        try {
+            UnityNotificationManager.beginProcessWork();
+            int moved = UnityNotificationManager.rebaseLocalTimeNotifications(context);
+            if (moved > 0)
+                Log.w("UnityNotifications", String.format("Moved %d notifications to their local time after a time change.", moved));
+        } finally {
+            NotificationTrace.end();
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.unity.androidnotifications;
+
+import android.app.Activity;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Hammers UnityNotificationManager with concurrent schedule, fire, cancel and boot restore operations, going through the
+// same entry points the game and the receivers use: scheduleNotificationIntent, UnityNotificationManager.onReceive with
+// the armed alarm's intent, cancelPendingNotificationIntent and UnityNotificationRestartOnBootReceiver. The alarm
+// manager and pending intents are Robolectric's in-memory ones.
+//
+// Every worker thread owns a range of ids, so it knows the exact state of those ids and checks it after every
+// operation. All workers also contend on a small pool of shared ids. The operations on shared ids are logged with their
+// start and end time, at the end the state of every shared id has to be the result of one of the operations that may have
+// been the last one on it (none started after it ended). Throughout the run the restorer checks that every scheduled
+// id has a record and an alarm armed with the record's version, and that ids which aren't scheduled have no alarm.
+// Everything is checked once more after the store is loaded again from disk.
+//
+// The plugin keeps the store, the indexes and the alarm plan in static fields for the whole process, while Robolectric
+// gives every test a new application. They're reset before and after the test, so nothing is carried over from or into
+// other tests.
+//
+// The run time can be changed with -Dnotifications.stress.millis=<milliseconds>, the throughput is printed.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23, manifest = Config.NONE)
+public class NotificationStoreStressTest
+{
+    private static final int WORKERS = 8;
+    private static final int IDS_PER_WORKER = 16;
+    private static final int SHARED_IDS = 4;
+    private static final int FIRST_SHARED_ID = 1000;
+    private static final String CHANNEL_ID = "stress_channel";
+    private static final long DURATION_MILLIS = Long.getLong("notifications.stress.millis", 2000L);
+
+    private static final int SCHEDULE = 0;
+    private static final int FIRE = 1;
+    private static final int CANCEL = 2;
+    private static final String[] OPERATION_NAMES = { "schedule", "fire", "cancel" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConcurrentLinkedQueue<String> mErrors = new ConcurrentLinkedQueue<String>();
+    private final ConcurrentLinkedQueue<SharedOperation> mSharedOperations = new ConcurrentLinkedQueue<SharedOperation>();
+    private final AtomicLong mOperations = new AtomicLong();
+    private final AtomicLong mVersions = new AtomicLong();
+    private volatile boolean mRunning = true;
+
+    private Context mContext;
+    private UnityNotificationManager mManager;
+    private long mFireTime;
+
+    // Expected state of an owned id, only accessed by the worker owning the id until the workers are done.
+    private static class Expected
+    {
+        boolean scheduled;
+        long version = -1L; // -1 when there is no record
+    }
+
+    private static class SharedOperation
+    {
+        final int id;
+        final int operation;
+        final long version;
+        final long start;
+        final long end;
+
+        SharedOperation(int id, int operation, long version, long start, long end)
+        {
+            this.id = id;
+            this.operation = operation;
+            this.version = version;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // What is observed of an id: whether it's scheduled, the version in the text of it's record and it's alarm.
+    private static class State
+    {
+        boolean scheduled;
+        long version = -1L;      // -1 when there is no record
+        boolean alarm;
+        long alarmVersion = -1L; // the record version the alarm was armed with
+        long recordVersion = -1L;
+    }
+
+    private static void setStaticField(Class<?> type, String name, Object value) throws Exception
+    {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    private static void closeStaticChannel(Class<?> type, String name) throws Exception
+    {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        FileChannel channel = (FileChannel)field.get(null);
+        if (channel != null)
+        {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                ;
+            }
+        }
+        field.set(null, null);
+    }
+
+    // Drops everything the plugin caches per process, as if the process was started again.
+    private static void resetProcessState() throws Exception
+    {
+        NotificationStore.flushInstance();
+        setStaticField(NotificationStore.class, "mInstance", null);
+        setStaticField(NotificationScheduleIndex.class, "mEntries", null);
+        setStaticField(NotificationScheduleIndex.class, "mOneTime", null);
+        setStaticField(NotificationScheduleIndex.class, "mRepeating", null);
+        setStaticField(NotificationSegments.class, "mIndexes", null);
+        setStaticField(NotificationSegments.class, "mEntryOfId", null);
+        closeStaticChannel(NotificationSegments.class, "mLockChannel");
+        setStaticField(NotificationSegments.class, "mGeneration", -1L);
+        setStaticField(NotificationAlarmPlanner.class, "mExactAlarmTimes", null);
+        setStaticField(NotificationAlarmPlanner.class, "mExactAlarms", null);
+        setStaticField(NotificationExpirySweeper.class, "mWheel", null);
+        setStaticField(NotificationEventLog.class, "mBuffer", null);
+        closeStaticChannel(NotificationEventLog.class, "mChannel");
+        setStaticField(NotificationEventLog.class, "mUnavailable", false);
+        setStaticField(NotificationEventLog.class, "mKnownChannels", null);
+        setStaticField(UnityNotificationManager.class, "mProcessWorkStarted", false);
+        setStaticField(UnityNotificationManager.class, "mStoreMigrated", false);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        resetProcessState();
+
+        // The game is running, alarms take the regular delivery path and not the cold one.
+        UnityNotificationManager.beginProcessWork();
+
+        mContext = RuntimeEnvironment.application;
+
+        // Posting a notification looks up the activity that taps open in the meta-data.
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = mContext.getPackageName();
+        packageInfo.applicationInfo = new ApplicationInfo(mContext.getApplicationInfo());
+        packageInfo.applicationInfo.metaData = new Bundle();
+        packageInfo.applicationInfo.metaData.putString("custom_notification_android_activity", Activity.class.getName());
+        Shadows.shadowOf(mContext.getPackageManager()).addPackage(packageInfo);
+
+        mManager = new UnityNotificationManager();
+        mManager.mContext = mContext;
+        mManager.registerNotificationChannel(CHANNEL_ID, "Stress", NotificationManager.IMPORTANCE_DEFAULT, "Stress test",
+            false, false, false, false, new long[0], 0);
+        mFireTime = System.currentTimeMillis() + 24 * 60 * 60 * 1000L;
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        resetProcessState();
+    }
+
+    private Intent createIntent(int id, long version)
+    {
+        Intent intent = new Intent();
+        intent.putExtra("id", id);
+        intent.putExtra("channelID", CHANNEL_ID);
+        intent.putExtra("textTitle", "Notification " + id);
+        intent.putExtra("textContent", "Version " + version);
+        intent.putExtra("smallIconStr", "");
+        intent.putExtra("largeIconStr", "");
+        intent.putExtra("fireTime", mFireTime + id);
+        intent.putExtra("repeatInterval", 0L);
+        return intent;
+    }
+
+    private void perform(int id, int operation, long version)
+    {
+        switch (operation)
+        {
+            case SCHEDULE:
+                mManager.scheduleNotificationIntent(createIntent(id, version));
+                break;
+            case FIRE:
+                // Delivers the armed alarm, unless it's already gone.
+                Long alarmVersion = getAlarmVersion(id);
+                if (alarmVersion != null)
+                    new UnityNotificationManager().onReceive(mContext,
+                        UnityNotificationManager.buildNotificationAlarmIntent(mContext, id, alarmVersion));
+                break;
+            default:
+                mManager.cancelPendingNotificationIntent(id);
+                break;
+        }
+    }
+
+    // Returns the record version the alarm of the id is armed with, null if it has no alarm.
+    private Long getAlarmVersion(int id)
+    {
+        synchronized (UnityNotificationManager.mScheduleLock)
+        {
+            Intent intent = new Intent(mContext, UnityNotificationManager.class);
+            PendingIntent broadcast = PendingIntent.getBroadcast(mContext, id, intent, PendingIntent.FLAG_NO_CREATE);
+            return broadcast != null ? Shadows.shadowOf(broadcast).getSavedIntent().getLongExtra("version", 0L) : null;
+        }
+    }
+
+    // Reads the state of an id in one go, the manager changes it only while holding the schedule lock. Robolectric's
+    // pending intents aren't thread safe, so they're only touched under the lock too.
+    private State observe(int id)
+    {
+        State state = new State();
+        synchronized (UnityNotificationManager.mScheduleLock)
+        {
+            NotificationStore store = UnityNotificationManager.getNotificationStore(mContext);
+            state.scheduled = store.isScheduled(id);
+
+            NotificationStore.Record record = store.get(id);
+            Map<String, Object> fields = store.getFields(id);
+            if (record != null && fields != null)
+            {
+                state.recordVersion = record.version;
+                state.version = Long.parseLong(((String)fields.get("textContent")).substring("Version ".length()));
+            }
+
+            Intent intent = new Intent(mContext, UnityNotificationManager.class);
+            PendingIntent broadcast = PendingIntent.getBroadcast(mContext, id, intent, PendingIntent.FLAG_NO_CREATE);
+            state.alarm = broadcast != null;
+            if (broadcast != null)
+                state.alarmVersion = Shadows.shadowOf(broadcast).getSavedIntent().getLongExtra("version", -1L);
+        }
+        return state;
+    }
+
+    private void checkInvariants(int id, State state, String when)
+    {
+        if (state.scheduled != state.alarm)
+            mErrors.add(String.format("Id %d is %s but %s %s", id, state.scheduled ? "scheduled" : "not scheduled",
+                state.alarm ? "has an alarm" : "has no alarm", when));
+        if (state.scheduled && state.version < 0)
+            mErrors.add(String.format("Id %d is scheduled without a record %s", id, when));
+        if (state.alarm && state.version >= 0 && state.alarmVersion != state.recordVersion)
+            mErrors.add(String.format("Alarm of id %d is armed for a stale version %s", id, when));
+    }
+
+    private void check(int id, Expected expected, String operation)
+    {
+        State state = observe(id);
+        if (state.scheduled != expected.scheduled)
+            mErrors.add(String.format("Id %d is %s after %s", id, state.scheduled ? "resurrected" : "lost", operation));
+        if ((state.version >= 0) != (expected.version >= 0))
+            mErrors.add(String.format("Record of id %d is %s after %s", id, state.version >= 0 ? "resurrected" : "lost", operation));
+        else if (state.version != expected.version)
+            mErrors.add(String.format("Record of id %d has a stale version after %s", id, operation));
+        checkInvariants(id, state, "after " + operation);
+    }
+
+    private Thread startWorker(final int worker, final Expected[] expected)
+    {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                Random random = new Random(worker);
+                while (mRunning)
+                {
+                    int operation = random.nextInt(3);
+                    long version = operation == SCHEDULE ? mVersions.incrementAndGet() : -1L;
+
+                    if (random.nextBoolean())
+                    {
+                        int id = FIRST_SHARED_ID + random.nextInt(SHARED_IDS);
+                        long start = System.nanoTime();
+                        perform(id, operation, version);
+                        mSharedOperations.add(new SharedOperation(id, operation, version, start, System.nanoTime()));
+                        checkInvariants(id, observe(id), "after " + OPERATION_NAMES[operation]);
+                        mOperations.incrementAndGet();
+                        continue;
+                    }
+
+                    int id = worker * IDS_PER_WORKER + random.nextInt(IDS_PER_WORKER);
+                    Expected state = expected[id];
+                    // Only scheduled notifications fire.
+                    if (operation == FIRE && !state.scheduled)
+                        continue;
+
+                    perform(id, operation, version);
+                    if (operation == SCHEDULE)
+                    {
+                        state.scheduled = true;
+                        state.version = version;
+                    }
+                    else
+                    {
+                        state.scheduled = false;
+                        if (operation == CANCEL)
+                            state.version = -1L;
+                    }
+
+                    check(id, state, OPERATION_NAMES[operation]);
+                    mOperations.incrementAndGet();
+                }
+            }
+        }, "StressWorker" + worker);
+        thread.start();
+        return thread;
+    }
+
+    // Restores every scheduled notification the way it's done after a reboot, and checks the invariants of all ids.
+    private Thread startRestorer()
+    {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                UnityNotificationRestartOnBootReceiver receiver = new UnityNotificationRestartOnBootReceiver();
+                while (mRunning)
+                {
+                    receiver.onReceive(mContext, new Intent(Intent.ACTION_BOOT_COMPLETED));
+                    for (int id : getTestedIds())
+                        checkInvariants(id, observe(id), "during a restore");
+                    mOperations.incrementAndGet();
+                }
+            }
+        }, "StressRestorer");
+        thread.start();
+        return thread;
+    }
+
+    // Forces group commits and checkpoints to happen while the other threads make changes.
+    private Thread startFlusher()
+    {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                while (mRunning)
+                {
+                    NotificationStore.flushInstance();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "StressFlusher");
+        thread.start();
+        return thread;
+    }
+
+    private static List<Integer> getTestedIds()
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = 0; id < WORKERS * IDS_PER_WORKER; id++)
+            ids.add(id);
+        for (int id = FIRST_SHARED_ID; id < FIRST_SHARED_ID + SHARED_IDS; id++)
+            ids.add(id);
+        return ids;
+    }
+
+    // The final state of a shared id has to be the result of an operation no other operation on the id started after.
+    private void checkSharedIds()
+    {
+        Map<Integer, List<SharedOperation>> operationsOfId = new HashMap<Integer, List<SharedOperation>>();
+        for (SharedOperation operation : mSharedOperations)
+        {
+            List<SharedOperation> operations = operationsOfId.get(operation.id);
+            if (operations == null)
+            {
+                operations = new ArrayList<SharedOperation>();
+                operationsOfId.put(operation.id, operations);
+            }
+            operations.add(operation);
+        }
+
+        for (Map.Entry<Integer, List<SharedOperation>> entry : operationsOfId.entrySet())
+        {
+            int id = entry.getKey();
+            State state = observe(id);
+            checkInvariants(id, state, "after the run");
+
+            long lastStart = Long.MIN_VALUE;
+            for (SharedOperation operation : entry.getValue())
+                lastStart = Math.max(lastStart, operation.start);
+
+            boolean explained = false;
+            for (SharedOperation operation : entry.getValue())
+            {
+                if (operation.end < lastStart)
+                    continue;
+                switch (operation.operation)
+                {
+                    case SCHEDULE:
+                        explained |= state.scheduled && state.version == operation.version;
+                        break;
+                    case FIRE:
+                        explained |= !state.scheduled;
+                        break;
+                    default:
+                        explained |= !state.scheduled && state.version < 0;
+                        break;
+                }
+            }
+            if (!explained)
+                mErrors.add(String.format("Final state of shared id %d (scheduled %b, version %d) isn't the result of any last operation",
+                    id, state.scheduled, state.version));
+        }
+    }
+
+    private void assertOwnedIds(NotificationStore store, Expected[] expected, String when)
+    {
+        for (int id = 0; id < expected.length; id++)
+        {
+            assertEquals("Scheduled state of id " + id + " " + when, expected[id].scheduled, store.isScheduled(id));
+
+            Map<String, Object> fields = store.getFields(id);
+            assertEquals("Record of id " + id + " " + when, expected[id].version >= 0, fields != null);
+            if (fields != null)
+                assertEquals("Record version of id " + id + " " + when, "Version " + expected[id].version, fields.get("textContent"));
+        }
+    }
+
+    private static Set<Integer> getIndexedIds(Context context)
+    {
+        NotificationQueryResult result = NotificationScheduleIndex.query(context, null, null, 0L, 0L,
+            NotificationScheduleIndex.REPEAT_ANY, Integer.MAX_VALUE, null);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int id : result.ids)
+            ids.add(id);
+        return ids;
+    }
+
+    @Test
+    public void concurrentScheduleFireCancelAndRestore_keepManagerStateConsistent() throws Exception
+    {
+        Expected[] expected = new Expected[WORKERS * IDS_PER_WORKER];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = new Expected();
+
+        Thread[] threads = new Thread[WORKERS + 2];
+        long start = System.nanoTime();
+        for (int worker = 0; worker < WORKERS; worker++)
+            threads[worker] = startWorker(worker, expected);
+        threads[WORKERS] = startRestorer();
+        threads[WORKERS + 1] = startFlusher();
+
+        Thread.sleep(DURATION_MILLIS);
+        mRunning = false;
+        for (Thread thread : threads)
+            thread.join();
+        long elapsedMillis = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+
+        NotificationStore store = UnityNotificationManager.getNotificationStore(mContext);
+        System.out.println(String.format("UnityNotificationManager stress: %d operations in %d ms, %d ops/s, %d scheduled at the end",
+            mOperations.get(), elapsedMillis, mOperations.get() * 1000L / elapsedMillis, store.getScheduledIds().size()));
+
+        for (int id = 0; id < expected.length; id++)
+            checkInvariants(id, observe(id), "after the run");
+        checkSharedIds();
+        assertTrue("Inconsistencies found:\n" + joinErrors(), mErrors.isEmpty());
+
+        assertOwnedIds(store, expected, "after the run");
+        Set<Integer> scheduled = store.getScheduledIds();
+        assertTrue("Ids outside of the tested range are scheduled", getTestedIds().containsAll(scheduled));
+        assertEquals("Scheduled ids missing from the schedule index", scheduled, getIndexedIds(mContext));
+
+        // A new process loads the file and replays the journal.
+        assertTrue(NotificationStore.flushInstance());
+        File directory = new File(mContext.getFilesDir(), NotificationStore.STORE_DIRECTORY);
+        NotificationStore reloaded = new NotificationStore(new File(directory, NotificationStore.STORE_FILE),
+            new File(directory, NotificationStore.INDEX_FILE), new File(directory, NotificationStore.JOURNAL_FILE));
+        assertOwnedIds(reloaded, expected, "after loading the store again");
+        assertEquals("Scheduled ids after loading the store again", scheduled, reloaded.getScheduledIds());
+        for (int id : getTestedIds())
+        {
+            NotificationStore.Record record = store.get(id);
+            if (record != null)
+            {
+                assertNotNull("Record of id " + id + " after loading the store again", reloaded.get(id));
+                assertEquals("Record version of id " + id + " after loading the store again", record.version, reloaded.get(id).version);
+            }
+        }
+    }
+
+    // The store on it's own: a reloaded store has the scheduled ids and records that were committed before.
+    @Test
+    public void reloadedStore_keepsScheduledIdsAndRecords() throws Exception
+    {
+        File directory = folder.newFolder();
+        NotificationStore store = new NotificationStore(new File(directory, NotificationStore.STORE_FILE),
+            new File(directory, NotificationStore.INDEX_FILE), new File(directory, NotificationStore.JOURNAL_FILE));
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id = 0; id < 100; id++)
+        {
+            ids.add(id);
+            Map<String, Object> fields = new HashMap<String, Object>();
+            fields.put("id", id);
+            fields.put("textContent", "Version 1");
+            store.put(id, 1L, fields, null);
+        }
+        store.updateScheduled(ids, null);
+        for (int id = 0; id < 100; id += 3)
+            store.updateScheduled(null, Collections.singleton(id));
+        for (int id = 1; id < 100; id += 3)
+        {
+            store.updateScheduled(null, Collections.singleton(id));
+            store.remove(id);
+        }
+        assertTrue(store.flush());
+
+        NotificationStore reloaded = new NotificationStore(new File(directory, NotificationStore.STORE_FILE),
+            new File(directory, NotificationStore.INDEX_FILE), new File(directory, NotificationStore.JOURNAL_FILE));
+        assertEquals(store.getScheduledIds(), reloaded.getScheduledIds());
+        assertEquals(33, reloaded.getScheduledIds().size());
+        assertEquals(67, reloaded.size());
+        for (int id = 0; id < 100; id++)
+            assertEquals("Record of id " + id, id % 3 != 1, reloaded.isStoredVersion(id, 1L));
+    }
+
+    private String joinErrors()
+    {
+        StringBuilder builder = new StringBuilder();
+        int count = 0;
+        for (String error : mErrors)
+        {
+            if (count++ == 20)
+            {
+                builder.append("... ").append(mErrors.size() - 20).append(" more\n");
+                break;
+            }
+            builder.append(error).append('\n');
+        }
+        return builder.toString();
+    }
+}